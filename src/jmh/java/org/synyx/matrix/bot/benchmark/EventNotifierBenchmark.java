@@ -0,0 +1,93 @@
+package org.synyx.matrix.bot.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.synyx.matrix.bot.MatrixEventConsumer;
+import org.synyx.matrix.bot.MatrixMetricsListener;
+import org.synyx.matrix.bot.MatrixState;
+import org.synyx.matrix.bot.domain.MatrixMessage;
+import org.synyx.matrix.bot.domain.MatrixRoom;
+import org.synyx.matrix.bot.domain.MatrixUserId;
+import org.synyx.matrix.bot.internal.MatrixClientImpl;
+import org.synyx.matrix.bot.internal.MatrixEventDeduplicator;
+import org.synyx.matrix.bot.internal.MatrixEventDispatcher;
+import org.synyx.matrix.bot.internal.MatrixEventNotifier;
+import org.synyx.matrix.bot.internal.MatrixStateSynchronizer;
+import org.synyx.matrix.bot.internal.api.dto.SyncResponseDto;
+
+/**
+ * Applying a sync response to an empty state and notifying a consumer about its events, which are
+ * collected during the same pass over the response.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EventNotifierBenchmark {
+
+  @Param({"ROOMS_10", "ROOMS_1K", "MEMBERS_10K", "TIMELINE_1K"})
+  private SyncPayloads.Scenario scenario;
+
+  private MatrixUserId ownUserId;
+  private SyncResponseDto syncResponse;
+  private MatrixEventNotifier eventNotifier;
+  private long notifications;
+
+  @Setup
+  public void setUp() throws IOException {
+
+    final ObjectMapper objectMapper = MatrixClientImpl.createObjectMapper();
+    syncResponse =
+        objectMapper.readValue(
+            SyncPayloads.generate(objectMapper, scenario), SyncResponseDto.class);
+    ownUserId = MatrixUserId.from(SyncPayloads.OWN_USER_ID).orElseThrow();
+
+    final var consumer =
+        new MatrixEventConsumer() {
+
+          @Override
+          public void onMessage(MatrixState state, MatrixRoom room, MatrixMessage message) {
+
+            notifications++;
+          }
+
+          @Override
+          public void onUserJoinRoom(MatrixState state, MatrixRoom room, MatrixUserId userId) {
+
+            notifications++;
+          }
+        };
+
+    // Deduplication is disabled, otherwise every invocation after the first would be skipped
+    eventNotifier =
+        MatrixEventNotifier.from(
+                consumer,
+                MatrixEventDispatcher.direct(),
+                new MatrixEventDeduplicator(0),
+                MatrixMetricsListener.NONE)
+            .orElseThrow();
+  }
+
+  @Benchmark
+  public long synchronizeAndNotify() throws InterruptedException {
+
+    final var state = new MatrixState(ownUserId);
+    new MatrixStateSynchronizer(state).synchronizeState(syncResponse, eventNotifier);
+    eventNotifier.notifyCollected(state);
+    return notifications;
+  }
+}
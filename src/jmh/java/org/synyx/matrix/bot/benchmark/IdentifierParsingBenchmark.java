@@ -0,0 +1,108 @@
+package org.synyx.matrix.bot.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.synyx.matrix.bot.domain.MatrixEventId;
+import org.synyx.matrix.bot.domain.MatrixIdentifiers;
+import org.synyx.matrix.bot.domain.MatrixUserId;
+
+/**
+ * Parsing and formatting identifiers as they appear in a sync response: 10k user ids of 1k
+ * distinct senders and 10k distinct event ids. The regex benchmarks reproduce the previous
+ * implementation as a baseline.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IdentifierParsingBenchmark {
+
+  private static final Pattern USER_ID_PATTERN = Pattern.compile("^@([^:\\x00]+):(.+)$");
+  private static final Pattern EVENT_ID_PATTERN = Pattern.compile("^\\$(.+)$");
+
+  private static final int IDS = 10_000;
+  private static final int DISTINCT_USERS = 1_000;
+
+  @Param({"0", "4096"})
+  private int internCacheCapacity;
+
+  private List<String> userIds;
+  private List<String> eventIds;
+
+  @Setup
+  public void setUp() {
+
+    MatrixIdentifiers.setInternCacheCapacity(internCacheCapacity);
+
+    // Every id is a distinct string instance, just like the ones read from a response body
+    userIds = new ArrayList<>(IDS);
+    eventIds = new ArrayList<>(IDS);
+    for (var i = 0; i < IDS; i++) {
+      userIds.add(new String(SyncPayloads.userId(i % DISTINCT_USERS)));
+      eventIds.add("$event%d-AbCdEfGhIjKlMnOpQrStUvWxYz".formatted(i));
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+
+    MatrixIdentifiers.setInternCacheCapacity(0);
+  }
+
+  @Benchmark
+  public void parseUserIds(Blackhole blackhole) {
+
+    for (final var userId : userIds) {
+      blackhole.consume(MatrixUserId.from(userId).orElseThrow().getFormatted());
+    }
+  }
+
+  @Benchmark
+  public void parseUserIdsWithRegex(Blackhole blackhole) {
+
+    for (final var userId : userIds) {
+      final var matcher = USER_ID_PATTERN.matcher(userId);
+      if (!matcher.matches()) {
+        throw new IllegalStateException();
+      }
+      blackhole.consume("@%s:%s".formatted(matcher.group(1), matcher.group(2)));
+    }
+  }
+
+  @Benchmark
+  public void parseEventIds(Blackhole blackhole) {
+
+    for (final var eventId : eventIds) {
+      blackhole.consume(MatrixEventId.from(eventId).orElseThrow().getFormatted());
+    }
+  }
+
+  @Benchmark
+  public void parseEventIdsWithRegex(Blackhole blackhole) {
+
+    for (final var eventId : eventIds) {
+      final var matcher = EVENT_ID_PATTERN.matcher(eventId);
+      if (!matcher.matches()) {
+        throw new IllegalStateException();
+      }
+      blackhole.consume("$%s".formatted(matcher.group(1)));
+    }
+  }
+}
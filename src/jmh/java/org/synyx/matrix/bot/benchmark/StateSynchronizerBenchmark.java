@@ -0,0 +1,56 @@
+package org.synyx.matrix.bot.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.synyx.matrix.bot.MatrixState;
+import org.synyx.matrix.bot.domain.MatrixUserId;
+import org.synyx.matrix.bot.internal.MatrixClientImpl;
+import org.synyx.matrix.bot.internal.MatrixStateSynchronizer;
+import org.synyx.matrix.bot.internal.api.dto.SyncResponseDto;
+
+/** Applying an initial sync response to an empty state. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StateSynchronizerBenchmark {
+
+  @Param({"ROOMS_10", "ROOMS_1K", "MEMBERS_1K", "MEMBERS_10K", "MEMBERS_50K", "TIMELINE_1K"})
+  private SyncPayloads.Scenario scenario;
+
+  private ObjectMapper objectMapper;
+  private MatrixUserId ownUserId;
+  private SyncResponseDto syncResponse;
+
+  @Setup
+  public void setUp() throws IOException {
+
+    objectMapper = MatrixClientImpl.createObjectMapper();
+    ownUserId = MatrixUserId.from(SyncPayloads.OWN_USER_ID).orElseThrow();
+    syncResponse =
+        objectMapper.readValue(
+            SyncPayloads.generate(objectMapper, scenario), SyncResponseDto.class);
+  }
+
+  @Benchmark
+  public MatrixState synchronizeInitialState() {
+
+    final var state = new MatrixState(ownUserId);
+    new MatrixStateSynchronizer(state).synchronizeState(syncResponse);
+    return state;
+  }
+}
@@ -0,0 +1,109 @@
+package org.synyx.matrix.bot.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/** Generates synthetic sync responses shaped like those of a real homeserver. */
+public final class SyncPayloads {
+
+  public static final String OWN_USER_ID = "@bot:example.com";
+
+  public enum Scenario {
+    ROOMS_10(10, 10, 20),
+    ROOMS_1K(1_000, 5, 5),
+    MEMBERS_1K(1, 1_000, 10),
+    MEMBERS_10K(1, 10_000, 10),
+    MEMBERS_50K(1, 50_000, 10),
+    TIMELINE_1K(1, 10, 1_000);
+
+    private final int rooms;
+    private final int membersPerRoom;
+    private final int messagesPerRoom;
+
+    Scenario(int rooms, int membersPerRoom, int messagesPerRoom) {
+
+      this.rooms = rooms;
+      this.membersPerRoom = membersPerRoom;
+      this.messagesPerRoom = messagesPerRoom;
+    }
+  }
+
+  private SyncPayloads() {}
+
+  public static byte[] generate(ObjectMapper objectMapper, Scenario scenario) {
+
+    final var response = objectMapper.createObjectNode();
+    response.put("next_batch", "s72595_4483_1934");
+
+    final var join = response.putObject("rooms").putObject("join");
+    for (var room = 0; room < scenario.rooms; room++) {
+      final var roomId = "!room%d:example.com".formatted(room);
+      final var joinedRoom = join.putObject(roomId);
+
+      final var stateEvents = joinedRoom.putObject("state").putArray("events");
+      addStateEvent(stateEvents, room, 0, "m.room.name", "", OWN_USER_ID)
+          .put("name", "Synthetic room " + room);
+      addStateEvent(stateEvents, room, 1, "m.room.canonical_alias", "", OWN_USER_ID)
+          .put("alias", "#room%d:example.com".formatted(room));
+      addMember(stateEvents, room, OWN_USER_ID, 2);
+      for (var member = 0; member < scenario.membersPerRoom; member++) {
+        addMember(stateEvents, room, userId(member), member + 3);
+      }
+
+      final var timeline = joinedRoom.putObject("timeline");
+      timeline.put("limited", false);
+      timeline.put("prev_batch", "t34-23535_0_0");
+      final var timelineEvents = timeline.putArray("events");
+      for (var message = 0; message < scenario.messagesPerRoom; message++) {
+        final var event =
+            addEvent(
+                timelineEvents,
+                "$message%d-%d".formatted(room, message),
+                "m.room.message",
+                userId(message % scenario.membersPerRoom));
+        final var content = event.putObject("content");
+        content.put("msgtype", "m.text");
+        content.put("body", "Synthetic message number %d in room %d".formatted(message, room));
+      }
+    }
+
+    try {
+      return objectMapper.writeValueAsBytes(response);
+    } catch (JsonProcessingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  public static String userId(int index) {
+
+    return "@user%d:example.com".formatted(index);
+  }
+
+  private static void addMember(ArrayNode events, int room, String userId, int index) {
+
+    final var content = addStateEvent(events, room, index, "m.room.member", userId, userId);
+    content.put("membership", "join");
+    content.put("displayname", "Display name of " + userId);
+  }
+
+  private static ObjectNode addStateEvent(
+      ArrayNode events, int room, int index, String type, String stateKey, String sender) {
+
+    final var event = addEvent(events, "$state%d-%d".formatted(room, index), type, sender);
+    event.put("state_key", stateKey);
+    return event.putObject("content");
+  }
+
+  private static ObjectNode addEvent(ArrayNode events, String eventId, String type, String sender) {
+
+    final var event = events.addObject();
+    event.put("event_id", eventId);
+    event.put("type", type);
+    event.put("sender", sender);
+    event.put("origin_server_ts", 1_700_000_000_000L);
+    event.putObject("unsigned").put("age", 1234);
+    return event;
+  }
+}
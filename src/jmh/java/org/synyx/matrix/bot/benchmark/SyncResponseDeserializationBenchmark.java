@@ -0,0 +1,85 @@
+package org.synyx.matrix.bot.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.synyx.matrix.bot.internal.MatrixClientImpl;
+import org.synyx.matrix.bot.internal.api.SyncResponseHandler;
+import org.synyx.matrix.bot.internal.api.SyncResponseParser;
+import org.synyx.matrix.bot.internal.api.dto.InvitedRoomDto;
+import org.synyx.matrix.bot.internal.api.dto.JoinedRoomDto;
+import org.synyx.matrix.bot.internal.api.dto.LeftRoomDto;
+import org.synyx.matrix.bot.internal.api.dto.SyncResponseDto;
+
+/** Reading a sync response body the way {@code MatrixApi} does in buffered and streaming mode. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SyncResponseDeserializationBenchmark {
+
+  @Param({"ROOMS_10", "ROOMS_1K", "MEMBERS_10K", "TIMELINE_1K"})
+  private SyncPayloads.Scenario scenario;
+
+  private ObjectMapper objectMapper;
+  private SyncResponseParser syncResponseParser;
+  private byte[] payload;
+
+  @Setup
+  public void setUp() {
+
+    objectMapper = MatrixClientImpl.createObjectMapper();
+    syncResponseParser = new SyncResponseParser(objectMapper);
+    payload = SyncPayloads.generate(objectMapper, scenario);
+  }
+
+  @Benchmark
+  public SyncResponseDto buffered() throws IOException {
+
+    return objectMapper.readValue(payload, SyncResponseDto.class);
+  }
+
+  @Benchmark
+  public Optional<String> streaming(Blackhole blackhole)
+      throws IOException, InterruptedException {
+
+    return syncResponseParser.parse(
+        new ByteArrayInputStream(payload),
+        new SyncResponseHandler() {
+
+          @Override
+          public void onInvitedRoom(String roomId, InvitedRoomDto room) {
+
+            blackhole.consume(room);
+          }
+
+          @Override
+          public void onJoinedRoom(String roomId, JoinedRoomDto room) {
+
+            blackhole.consume(room);
+          }
+
+          @Override
+          public void onLeftRoom(String roomId, LeftRoomDto room) {
+
+            blackhole.consume(room);
+          }
+        });
+  }
+}
@@ -1,9 +1,9 @@
 package org.synyx.matrix.bot;
 
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import org.synyx.matrix.bot.domain.MatrixEventId;
 import org.synyx.matrix.bot.domain.MatrixRoomId;
-import org.synyx.matrix.bot.internal.MatrixClientImpl;
 
 /**
  * An interface for a client connecting to a matrix server. Serves as the main method of
@@ -22,7 +22,22 @@ public interface MatrixClient {
    */
   static MatrixClient create(String url, String username, String password) {
 
-    return new MatrixClientImpl(url, username, password);
+    return builder(url, username, password).build();
+  }
+
+  /**
+   * Creates a builder for a matrix client with a custom transport configuration, e.g. a shared
+   * {@link java.net.http.HttpClient}, custom timeouts or a custom object mapper.
+   *
+   * @param url The url for connecting to the intended matrix server. Must start with http:// or
+   *     https://
+   * @param username The username for logging into the matrix server.
+   * @param password The password for logging into the matrix server.
+   * @return A builder for a {@link MatrixClient} that connects to the specified matrix server.
+   */
+  static MatrixClientBuilder builder(String url, String username, String password) {
+
+    return new MatrixClientBuilder(url, username, password);
   }
 
   /**
@@ -34,6 +49,57 @@ public interface MatrixClient {
    */
   void setEventCallback(MatrixEventConsumer eventConsumer);
 
+  /**
+   * Sets how many event consumer callbacks may run at the same time. By default, all callbacks are
+   * run one after another on the thread calling {@link #syncContinuous()}, so a slow callback
+   * delays all other rooms and the next sync. With a limit of at least one, callbacks are run on
+   * virtual threads instead: callbacks for the same room are still called one after another in the
+   * order the events happened, while callbacks for different rooms run concurrently, and syncing
+   * continues while they run. Syncing only waits for them if too many callbacks are waiting to be
+   * run. Each batch is only stored using the {@link MatrixPersistedStateProvider} once its
+   * callbacks completed, in the order the batches were synced, so its events are not lost if the
+   * process stops before they were consumed. Concurrently running callbacks are passed a read-only
+   * snapshot of the {@link MatrixState} and its rooms as of the synced batch, which is not changed
+   * by later syncs.
+   *
+   * <p>Must be set before calling {@link #syncContinuous()}. When syncing stops, it waits for the
+   * pending callbacks to complete.
+   *
+   * @param maxConcurrentCallbacks The maximum number of callbacks running at the same time, or
+   *     {@code 0} to run all callbacks on the syncing thread.
+   * @throws IllegalStateException The client is currently syncing.
+   */
+  void setEventDispatchConcurrency(int maxConcurrentCallbacks);
+
+  /**
+   * Sets how many ids of recently notified events are remembered to avoid notifying about the same
+   * event twice, e.g. when syncing again from a previous batch after a connection loss. The ids are
+   * also stored using {@link MatrixPersistedStateProvider#setRecentEventIds(java.util.List)} if a
+   * persisted state provider is set. Defaults to 1024.
+   *
+   * @param capacity The number of event ids to remember, or {@code 0} to disable deduplication.
+   */
+  void setEventDeduplicationCapacity(int capacity);
+
+  /**
+   * Sets how many lazy loaded room members are cached, see {@link
+   * MatrixSyncFilter.Builder#lazyLoadMembers()}. The members of a room are always cached as a
+   * whole, the rooms used least recently are evicted first. Defaults to 10000.
+   *
+   * @param capacity The number of members to cache, or {@code 0} to fetch the members of a room on
+   *     every lookup.
+   */
+  void setMemberCacheCapacity(int capacity);
+
+  /**
+   * Sets a listener receiving measurements of sync requests, state synchronization, event consumer
+   * callbacks, other requests and backoffs. By default, no measurements are reported.
+   *
+   * @param metricsListener The listener to report measurements to, or {@code null} to stop
+   *     reporting.
+   */
+  void setMetricsListener(MatrixMetricsListener metricsListener);
+
   /**
    * Optionally provides an interface to provide the current state of the matrix client. If not
    * provided, any startup will act like the first startup and will ignore any previously sent
@@ -44,6 +110,42 @@ public interface MatrixClient {
    */
   void setPersistedStateProvider(MatrixPersistedStateProvider persistedState);
 
+  /**
+   * Enables or disables streaming of sync responses. When enabled, sync responses are parsed while
+   * they are being received and every room is applied to the state and notified about as soon as it
+   * has been read, instead of buffering the whole response first. This keeps memory usage flat for
+   * large sync responses, but means that callbacks for one room may be called before the state of
+   * rooms appearing later in the same response has been updated. Callbacks run concurrently, see
+   * {@link #setEventDispatchConcurrency(int)}, are still only called once the whole response has
+   * been applied. Disabled by default.
+   *
+   * @param streamingSync {@code true} to stream sync responses, {@code false} to buffer them.
+   */
+  void setStreamingSync(boolean streamingSync);
+
+  /**
+   * Enables or disables pipelined syncing. When enabled, the next sync request is sent to the
+   * server as soon as the current sync response has been received, so waiting for the next batch
+   * overlaps with applying and notifying about the current one. Batches are still applied strictly
+   * in order. Pipelined syncing buffers the sync responses and therefore takes precedence over
+   * {@link #setStreamingSync(boolean)} for all but the initial sync. Disabled by default.
+   *
+   * @param pipelinedSync {@code true} to pipeline sync requests, {@code false} otherwise.
+   */
+  void setPipelinedSync(boolean pipelinedSync);
+
+  /**
+   * Sets the filter to apply to the data received when syncing with the server. The filter is
+   * uploaded to the server on the next (re)connect and reused for as long as it does not change. A
+   * filter created by {@code MatrixSyncFilter.builder().build()} only includes the events the
+   * client and the registered event consumer actually need, and leaves out e.g. account data,
+   * presence and ephemeral events. By default, no filter is set and all data is received
+   * unfiltered.
+   *
+   * @param syncFilter The filter to apply, or {@code null} to receive all data unfiltered.
+   */
+  void setSyncFilter(MatrixSyncFilter syncFilter);
+
   /**
    * The main matrix client event loop that continuously syncs all events happening on the matrix
    * server to the client. This is a blocking call, so make sure to call it from a different thread
@@ -68,7 +170,9 @@ public interface MatrixClient {
   boolean isConnected();
 
   /**
-   * Returns the current state of the matrix client.
+   * Returns the current state of the matrix client. The state is a read-only snapshot taken after
+   * the most recent sync batch has been applied. It can be read from any thread without
+   * synchronization and does not change, call this method again to get a newer snapshot.
    *
    * @return A {@link MatrixState} object if currently connected to a server, {@link
    *     Optional#empty()} otherwise.
@@ -85,6 +189,17 @@ public interface MatrixClient {
    */
   Optional<MatrixEventId> sendMessage(MatrixRoomId roomId, String messageBody);
 
+  /**
+   * Sends a message to the specified room without blocking the calling thread.
+   *
+   * @param roomId The id of the room to send the message to.
+   * @param messageBody The body of the message to send.
+   * @return A {@link CompletableFuture} completing with the id of the event that was sent, or
+   *     completing exceptionally with a {@link MatrixCommunicationException} if sending the message
+   *     did not succeed.
+   */
+  CompletableFuture<MatrixEventId> sendMessageAsync(MatrixRoomId roomId, String messageBody);
+
   /**
    * Attempts to add a reaction to an event (a message of the time).
    *
@@ -96,6 +211,19 @@ public interface MatrixClient {
    */
   Optional<MatrixEventId> addReaction(MatrixRoomId roomId, MatrixEventId eventId, String reaction);
 
+  /**
+   * Adds a reaction to an event without blocking the calling thread.
+   *
+   * @param roomId The id of the room to send the message in.
+   * @param eventId The id of the event to react to.
+   * @param reaction The reaction to send.
+   * @return A {@link CompletableFuture} completing with the id of the event that was sent, or
+   *     completing exceptionally with a {@link MatrixCommunicationException} if sending the
+   *     reaction did not succeed.
+   */
+  CompletableFuture<MatrixEventId> addReactionAsync(
+      MatrixRoomId roomId, MatrixEventId eventId, String reaction);
+
   /**
    * Attempts to join a room.
    *
@@ -104,6 +232,16 @@ public interface MatrixClient {
    */
   boolean joinRoom(MatrixRoomId roomId);
 
+  /**
+   * Joins a room without blocking the calling thread.
+   *
+   * @param roomId The id of the room to join.
+   * @return A {@link CompletableFuture} completing when the room was joined, or completing
+   *     exceptionally with a {@link MatrixCommunicationException} if joining the room did not
+   *     succeed.
+   */
+  CompletableFuture<Void> joinRoomAsync(MatrixRoomId roomId);
+
   /**
    * Attempts to leave a room.
    *
@@ -111,4 +249,14 @@ public interface MatrixClient {
    * @return {@code true} if leaving the room was successful, {@code false} otherwise.
    */
   boolean leaveRoom(MatrixRoomId roomId);
+
+  /**
+   * Leaves a room without blocking the calling thread.
+   *
+   * @param roomId The id of the room to leave.
+   * @return A {@link CompletableFuture} completing when the room was left, or completing
+   *     exceptionally with a {@link MatrixCommunicationException} if leaving the room did not
+   *     succeed.
+   */
+  CompletableFuture<Void> leaveRoomAsync(MatrixRoomId roomId);
 }
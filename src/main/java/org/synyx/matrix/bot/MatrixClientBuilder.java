@@ -0,0 +1,199 @@
+package org.synyx.matrix.bot;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import org.synyx.matrix.bot.internal.MatrixClientImpl;
+import org.synyx.matrix.bot.internal.api.MatrixHttpTransport;
+
+/**
+ * Creates a {@link MatrixClient} with a custom transport configuration. Obtain an instance using
+ * {@link MatrixClient#builder(String, String, String)}.
+ *
+ * <p>Many clients can share one connection pool and thread pool by passing the same {@link
+ * HttpClient} to each of them.
+ */
+public class MatrixClientBuilder {
+
+  private final String url;
+  private final String username;
+  private final String password;
+  private HttpClient httpClient;
+  private Executor executor;
+  private HttpClient.Version httpVersion;
+  private Duration connectTimeout;
+  private Duration syncTimeout;
+  private Duration requestTimeout;
+  private ObjectMapper objectMapper;
+  private boolean compressSyncResponses;
+
+  MatrixClientBuilder(String url, String username, String password) {
+
+    this.url = url;
+    this.username = username;
+    this.password = password;
+    this.httpClient = null;
+    this.executor = null;
+    this.httpVersion = null;
+    this.connectTimeout = null;
+    this.syncTimeout = MatrixHttpTransport.DEFAULT_SYNC_TIMEOUT;
+    this.requestTimeout = MatrixHttpTransport.DEFAULT_REQUEST_TIMEOUT;
+    this.objectMapper = null;
+    this.compressSyncResponses = false;
+  }
+
+  /**
+   * Uses the given HTTP client instead of creating one. The client is not shut down when the
+   * matrix client stops syncing, so it can be shared between multiple matrix clients. Cannot be
+   * combined with {@link #executor(Executor)}, {@link #httpVersion(HttpClient.Version)} and
+   * {@link #connectTimeout(Duration)}, which only apply to a client created by this builder.
+   *
+   * @param httpClient The HTTP client to send all requests with.
+   * @return This builder.
+   */
+  public MatrixClientBuilder httpClient(HttpClient httpClient) {
+
+    this.httpClient = httpClient;
+    return this;
+  }
+
+  /**
+   * Sets the executor of the created HTTP client, used for asynchronous tasks such as sending
+   * events. Defaults to the HTTP client's own thread pool.
+   *
+   * @param executor The executor to use.
+   * @return This builder.
+   */
+  public MatrixClientBuilder executor(Executor executor) {
+
+    this.executor = executor;
+    return this;
+  }
+
+  /**
+   * Sets the preferred HTTP version of the created HTTP client. Defaults to HTTP/2, falling back to
+   * HTTP/1.1 if the server does not support it.
+   *
+   * @param httpVersion The preferred HTTP version.
+   * @return This builder.
+   */
+  public MatrixClientBuilder httpVersion(HttpClient.Version httpVersion) {
+
+    this.httpVersion = httpVersion;
+    return this;
+  }
+
+  /**
+   * Sets the connect timeout of the created HTTP client. By default, connecting is only limited by
+   * the request timeouts.
+   *
+   * @param connectTimeout The maximum time to wait for a connection to be established.
+   * @return This builder.
+   */
+  public MatrixClientBuilder connectTimeout(Duration connectTimeout) {
+
+    this.connectTimeout = connectTimeout;
+    return this;
+  }
+
+  /**
+   * Sets how long the server may wait for new events before answering a sync request with an empty
+   * response. Zero makes the server answer immediately. The sync request itself times out after one
+   * and a half times this duration, but not before the {@link #requestTimeout(Duration) request
+   * timeout}. Defaults to 30 seconds.
+   *
+   * @param syncTimeout The long polling timeout of sync requests.
+   * @return This builder.
+   */
+  public MatrixClientBuilder syncTimeout(Duration syncTimeout) {
+
+    this.syncTimeout = syncTimeout;
+    return this;
+  }
+
+  /**
+   * Sets the timeout of all requests other than syncs. Must be at least one millisecond. Defaults
+   * to 30 seconds.
+   *
+   * @param requestTimeout The request timeout.
+   * @return This builder.
+   */
+  public MatrixClientBuilder requestTimeout(Duration requestTimeout) {
+
+    this.requestTimeout = requestTimeout;
+    return this;
+  }
+
+  /**
+   * Uses the given object mapper for all JSON processing, e.g. to share it between multiple
+   * clients. It must not fail on unknown properties, must read unknown enum values as their default
+   * value and must support {@link java.util.Optional}. Defaults to a mapper configured accordingly.
+   *
+   * @param objectMapper The object mapper to use.
+   * @return This builder.
+   */
+  public MatrixClientBuilder objectMapper(ObjectMapper objectMapper) {
+
+    this.objectMapper = objectMapper;
+    return this;
+  }
+
+  /**
+   * Asks the server to compress sync responses using gzip or deflate. Compressed responses are
+   * decompressed while being parsed, so this mostly pays off on slow links or for large initial
+   * syncs, at the cost of CPU time on both ends. Disabled by default.
+   *
+   * @param compressSyncResponses Whether to ask for compressed sync responses.
+   * @return This builder.
+   */
+  public MatrixClientBuilder compressSyncResponses(boolean compressSyncResponses) {
+
+    this.compressSyncResponses = compressSyncResponses;
+    return this;
+  }
+
+  /**
+   * Creates the matrix client.
+   *
+   * @return A {@link MatrixClient} implementation that connects to the configured matrix server.
+   */
+  public MatrixClient build() {
+
+    MatrixHttpTransport.checkTimeouts(syncTimeout, requestTimeout);
+
+    final var ownsHttpClient = httpClient == null;
+    if (!ownsHttpClient && (executor != null || httpVersion != null || connectTimeout != null)) {
+      throw new IllegalStateException(
+          "Executor, HTTP version and connect timeout cannot be set for a provided HTTP client");
+    }
+
+    return new MatrixClientImpl(
+        url,
+        username,
+        password,
+        new MatrixHttpTransport(
+            ownsHttpClient ? createHttpClient() : httpClient,
+            ownsHttpClient,
+            syncTimeout,
+            requestTimeout,
+            compressSyncResponses),
+        objectMapper != null ? objectMapper : MatrixClientImpl.createObjectMapper());
+  }
+
+  private HttpClient createHttpClient() {
+
+    final var builder = HttpClient.newBuilder();
+    if (executor != null) {
+      builder.executor(executor);
+    }
+    if (httpVersion != null) {
+      builder.version(httpVersion);
+    }
+    if (connectTimeout != null) {
+      builder.connectTimeout(connectTimeout);
+    }
+
+    return builder.build();
+  }
+}
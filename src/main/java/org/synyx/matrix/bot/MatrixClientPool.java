@@ -0,0 +1,519 @@
+package org.synyx.matrix.bot;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.synyx.matrix.bot.internal.MatrixClientImpl;
+import org.synyx.matrix.bot.internal.api.MatrixHttpTransport;
+
+/**
+ * Hosts many matrix accounts in one JVM. All clients of a pool share one {@link HttpClient} and one
+ * {@link ObjectMapper}, and each client syncs on its own virtual thread, so hosting thousands of
+ * accounts does not need thousands of platform threads.
+ *
+ * <p>The measurements of all clients are aggregated, see {@link #getMetrics()}. To additionally
+ * bridge them to a metrics library, use {@link #setMetricsListener(MatrixMetricsListener)} of the
+ * pool instead of the one of the clients, which would replace the aggregation.
+ */
+public class MatrixClientPool implements AutoCloseable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MatrixClientPool.class);
+
+  private final ExecutorService httpExecutor;
+  private final HttpClient httpClient;
+  private final ObjectMapper objectMapper;
+  private final Duration syncTimeout;
+  private final Duration requestTimeout;
+  private final boolean compressSyncResponses;
+  private final AggregatingMetricsListener metricsListener;
+  private final List<MatrixClient> clients;
+  private final Map<MatrixClient, Thread> syncThreads;
+  private final ThreadFactory syncThreadFactory;
+  private volatile boolean closed;
+
+  private MatrixClientPool(Builder builder) {
+
+    this.httpExecutor =
+        Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("matrix-http-", 0).factory());
+    this.httpClient = createHttpClient(builder, httpExecutor);
+    this.objectMapper =
+        builder.objectMapper != null ? builder.objectMapper : MatrixClientImpl.createObjectMapper();
+    this.syncTimeout = builder.syncTimeout;
+    this.requestTimeout = builder.requestTimeout;
+    this.compressSyncResponses = builder.compressSyncResponses;
+    this.metricsListener = new AggregatingMetricsListener();
+    this.clients = new CopyOnWriteArrayList<>();
+    this.syncThreads = new ConcurrentHashMap<>();
+    this.syncThreadFactory = Thread.ofVirtual().name("matrix-sync-", 0).factory();
+    this.closed = false;
+  }
+
+  public static MatrixClientPool create() {
+
+    return builder().build();
+  }
+
+  public static Builder builder() {
+
+    return new Builder();
+  }
+
+  /**
+   * Creates a client for another account, using the transport shared by all clients of this pool.
+   * The client does not sync until {@link #startSyncing(MatrixClient)} is called.
+   *
+   * @param url The url for connecting to the intended matrix server. Must start with http:// or
+   *     https://
+   * @param username The username for logging into the matrix server.
+   * @param password The password for logging into the matrix server.
+   * @return The created client.
+   */
+  public MatrixClient addClient(String url, String username, String password) {
+
+    checkOpen();
+    final var client =
+        MatrixClient.builder(url, username, password)
+            .httpClient(httpClient)
+            .objectMapper(objectMapper)
+            .syncTimeout(syncTimeout)
+            .requestTimeout(requestTimeout)
+            .compressSyncResponses(compressSyncResponses)
+            .build();
+    client.setMetricsListener(metricsListener);
+    clients.add(client);
+
+    return client;
+  }
+
+  /**
+   * Runs {@link MatrixClient#syncContinuous()} of a client of this pool on a new virtual thread.
+   *
+   * @param client The client to start syncing.
+   * @throws IllegalStateException The client is already syncing.
+   */
+  public void startSyncing(MatrixClient client) {
+
+    checkOpen();
+    if (!clients.contains(client)) {
+      throw new IllegalArgumentException("Client is not part of this pool");
+    }
+
+    final var thread = syncThreadFactory.newThread(() -> sync(client));
+    if (syncThreads.putIfAbsent(client, thread) != null) {
+      throw new IllegalStateException("Client is already syncing");
+    }
+
+    thread.start();
+  }
+
+  /**
+   * Requests a client of this pool to stop syncing, without waiting for it to stop.
+   *
+   * @param client The client to stop.
+   */
+  public void stopSyncing(MatrixClient client) {
+
+    if (syncThreads.containsKey(client)) {
+      client.requestStopOfSync();
+    }
+  }
+
+  /**
+   * Stops a client of this pool from syncing and removes it.
+   *
+   * @param client The client to remove.
+   */
+  public void removeClient(MatrixClient client) {
+
+    stopSyncing(client);
+    clients.remove(client);
+  }
+
+  /**
+   * Returns the clients of this pool.
+   *
+   * @return A read-only list of the clients.
+   */
+  public List<MatrixClient> getClients() {
+
+    return List.copyOf(clients);
+  }
+
+  /**
+   * Sets a listener receiving the measurements of all clients of this pool, in addition to the
+   * aggregated {@link #getMetrics()}.
+   *
+   * @param metricsListener The listener to forward measurements to, or {@code null} to not forward
+   *     them.
+   */
+  public void setMetricsListener(MatrixMetricsListener metricsListener) {
+
+    this.metricsListener.delegate =
+        metricsListener != null ? metricsListener : MatrixMetricsListener.NONE;
+  }
+
+  /**
+   * Returns the measurements of all clients of this pool since it has been created.
+   *
+   * @return A snapshot of the aggregated measurements.
+   */
+  public Metrics getMetrics() {
+
+    return new Metrics(
+        clients.size(),
+        syncThreads.size(),
+        (int) clients.stream().filter(MatrixClient::isConnected).count(),
+        metricsListener.syncResponses.sum(),
+        metricsListener.syncResponseBytes.sum(),
+        metricsListener.processedEvents.sum(),
+        metricsListener.synchronizationNanos.sum(),
+        metricsListener.callbacks.sum(),
+        metricsListener.callbackNanos.sum(),
+        metricsListener.requests.sum(),
+        metricsListener.failedRequests.sum(),
+        metricsListener.backoffs.sum());
+  }
+
+  /**
+   * Stops all clients of this pool, waits for them to stop syncing and shuts down the shared
+   * transport. The sync threads are interrupted as well, so clients backing off stop right away. If
+   * the calling thread is interrupted while waiting, the transport is shut down right away. The
+   * pool cannot be used afterwards.
+   */
+  @Override
+  public void close() {
+
+    closed = true;
+    clients.forEach(this::stopSyncing);
+    final var threads = List.copyOf(syncThreads.values());
+    threads.forEach(Thread::interrupt);
+
+    try {
+      for (final var thread : threads) {
+        thread.join();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      httpClient.shutdownNow();
+      httpExecutor.shutdownNow();
+    }
+  }
+
+  private void sync(MatrixClient client) {
+
+    try {
+      client.syncContinuous();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (RuntimeException e) {
+      LOG.error("Client stopped syncing after an uncaught exception", e);
+    } finally {
+      syncThreads.remove(client, Thread.currentThread());
+    }
+  }
+
+  private void checkOpen() {
+
+    if (closed) {
+      throw new IllegalStateException("Client pool has been closed");
+    }
+  }
+
+  private static HttpClient createHttpClient(Builder builder, ExecutorService executor) {
+
+    final var httpClientBuilder = HttpClient.newBuilder().executor(executor);
+    if (builder.httpVersion != null) {
+      httpClientBuilder.version(builder.httpVersion);
+    }
+    if (builder.connectTimeout != null) {
+      httpClientBuilder.connectTimeout(builder.connectTimeout);
+    }
+
+    return httpClientBuilder.build();
+  }
+
+  /** A snapshot of the measurements of all clients of a {@link MatrixClientPool}. */
+  public static class Metrics {
+
+    private final int clientCount;
+    private final int syncingClientCount;
+    private final int connectedClientCount;
+    private final long syncResponseCount;
+    private final long syncResponseBytes;
+    private final long processedEventCount;
+    private final long synchronizationNanos;
+    private final long callbackCount;
+    private final long callbackNanos;
+    private final long requestCount;
+    private final long failedRequestCount;
+    private final long backoffCount;
+
+    private Metrics(
+        int clientCount,
+        int syncingClientCount,
+        int connectedClientCount,
+        long syncResponseCount,
+        long syncResponseBytes,
+        long processedEventCount,
+        long synchronizationNanos,
+        long callbackCount,
+        long callbackNanos,
+        long requestCount,
+        long failedRequestCount,
+        long backoffCount) {
+
+      this.clientCount = clientCount;
+      this.syncingClientCount = syncingClientCount;
+      this.connectedClientCount = connectedClientCount;
+      this.syncResponseCount = syncResponseCount;
+      this.syncResponseBytes = syncResponseBytes;
+      this.processedEventCount = processedEventCount;
+      this.synchronizationNanos = synchronizationNanos;
+      this.callbackCount = callbackCount;
+      this.callbackNanos = callbackNanos;
+      this.requestCount = requestCount;
+      this.failedRequestCount = failedRequestCount;
+      this.backoffCount = backoffCount;
+    }
+
+    public int getClientCount() {
+
+      return clientCount;
+    }
+
+    public int getSyncingClientCount() {
+
+      return syncingClientCount;
+    }
+
+    public int getConnectedClientCount() {
+
+      return connectedClientCount;
+    }
+
+    public long getSyncResponseCount() {
+
+      return syncResponseCount;
+    }
+
+    /** Returns the total size of all sync response bodies in bytes, after decompression. */
+    public long getSyncResponseBytes() {
+
+      return syncResponseBytes;
+    }
+
+    public long getProcessedEventCount() {
+
+      return processedEventCount;
+    }
+
+    /** Returns the total time spent applying sync responses to the states of the clients. */
+    public long getSynchronizationNanos() {
+
+      return synchronizationNanos;
+    }
+
+    public long getCallbackCount() {
+
+      return callbackCount;
+    }
+
+    public long getCallbackNanos() {
+
+      return callbackNanos;
+    }
+
+    public long getRequestCount() {
+
+      return requestCount;
+    }
+
+    /** Returns the number of requests answered with an error status or not answered at all. */
+    public long getFailedRequestCount() {
+
+      return failedRequestCount;
+    }
+
+    public long getBackoffCount() {
+
+      return backoffCount;
+    }
+  }
+
+  public static class Builder {
+
+    private ObjectMapper objectMapper;
+    private HttpClient.Version httpVersion;
+    private Duration connectTimeout;
+    private Duration syncTimeout;
+    private Duration requestTimeout;
+    private boolean compressSyncResponses;
+
+    private Builder() {
+
+      this.objectMapper = null;
+      this.httpVersion = null;
+      this.connectTimeout = null;
+      this.syncTimeout = MatrixHttpTransport.DEFAULT_SYNC_TIMEOUT;
+      this.requestTimeout = MatrixHttpTransport.DEFAULT_REQUEST_TIMEOUT;
+      this.compressSyncResponses = false;
+    }
+
+    /**
+     * Uses the given object mapper for all clients, see {@link
+     * MatrixClientBuilder#objectMapper(ObjectMapper)}.
+     *
+     * @param objectMapper The object mapper to use.
+     * @return This builder.
+     */
+    public Builder objectMapper(ObjectMapper objectMapper) {
+
+      this.objectMapper = objectMapper;
+      return this;
+    }
+
+    /**
+     * Sets the preferred HTTP version of the shared HTTP client, see {@link
+     * MatrixClientBuilder#httpVersion(HttpClient.Version)}.
+     *
+     * @param httpVersion The preferred HTTP version.
+     * @return This builder.
+     */
+    public Builder httpVersion(HttpClient.Version httpVersion) {
+
+      this.httpVersion = httpVersion;
+      return this;
+    }
+
+    /**
+     * Sets the connect timeout of the shared HTTP client, see {@link
+     * MatrixClientBuilder#connectTimeout(Duration)}.
+     *
+     * @param connectTimeout The maximum time to wait for a connection to be established.
+     * @return This builder.
+     */
+    public Builder connectTimeout(Duration connectTimeout) {
+
+      this.connectTimeout = connectTimeout;
+      return this;
+    }
+
+    /**
+     * Sets the long polling timeout of all clients, see {@link
+     * MatrixClientBuilder#syncTimeout(Duration)}.
+     *
+     * @param syncTimeout The long polling timeout of sync requests.
+     * @return This builder.
+     */
+    public Builder syncTimeout(Duration syncTimeout) {
+
+      this.syncTimeout = syncTimeout;
+      return this;
+    }
+
+    /**
+     * Sets the timeout of all requests other than syncs of all clients, see {@link
+     * MatrixClientBuilder#requestTimeout(Duration)}.
+     *
+     * @param requestTimeout The request timeout.
+     * @return This builder.
+     */
+    public Builder requestTimeout(Duration requestTimeout) {
+
+      this.requestTimeout = requestTimeout;
+      return this;
+    }
+
+    /**
+     * Asks the server to compress the sync responses of all clients, see {@link
+     * MatrixClientBuilder#compressSyncResponses(boolean)}.
+     *
+     * @param compressSyncResponses Whether to ask for compressed sync responses.
+     * @return This builder.
+     */
+    public Builder compressSyncResponses(boolean compressSyncResponses) {
+
+      this.compressSyncResponses = compressSyncResponses;
+      return this;
+    }
+
+    public MatrixClientPool build() {
+
+      MatrixHttpTransport.checkTimeouts(syncTimeout, requestTimeout);
+
+      return new MatrixClientPool(this);
+    }
+  }
+
+  private static class AggregatingMetricsListener implements MatrixMetricsListener {
+
+    private final LongAdder syncResponses = new LongAdder();
+    private final LongAdder syncResponseBytes = new LongAdder();
+    private final LongAdder processedEvents = new LongAdder();
+    private final LongAdder synchronizationNanos = new LongAdder();
+    private final LongAdder callbacks = new LongAdder();
+    private final LongAdder callbackNanos = new LongAdder();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder failedRequests = new LongAdder();
+    private final LongAdder backoffs = new LongAdder();
+    private volatile MatrixMetricsListener delegate = MatrixMetricsListener.NONE;
+
+    @Override
+    public void onSyncResponse(long latencyNanos, long responseBytes) {
+
+      syncResponses.increment();
+      syncResponseBytes.add(responseBytes);
+      delegate.onSyncResponse(latencyNanos, responseBytes);
+    }
+
+    @Override
+    public void onSyncResponseDecompressed(long compressedBytes, long uncompressedBytes) {
+
+      delegate.onSyncResponseDecompressed(compressedBytes, uncompressedBytes);
+    }
+
+    @Override
+    public void onSyncBatchProcessed(int eventCount, long synchronizationNanos) {
+
+      processedEvents.add(eventCount);
+      this.synchronizationNanos.add(synchronizationNanos);
+      delegate.onSyncBatchProcessed(eventCount, synchronizationNanos);
+    }
+
+    @Override
+    public void onCallback(String consumedEvent, long durationNanos) {
+
+      callbacks.increment();
+      callbackNanos.add(durationNanos);
+      delegate.onCallback(consumedEvent, durationNanos);
+    }
+
+    @Override
+    public void onRequest(String endpoint, int statusCode, long latencyNanos) {
+
+      requests.increment();
+      if (statusCode < 0 || statusCode >= 400) {
+        failedRequests.increment();
+      }
+      delegate.onRequest(endpoint, statusCode, latencyNanos);
+    }
+
+    @Override
+    public void onBackoff(Duration delay) {
+
+      backoffs.increment();
+      delegate.onBackoff(delay);
+    }
+  }
+}
@@ -17,6 +17,17 @@ import org.synyx.matrix.bot.internal.MatrixClientImpl;
  */
 public interface MatrixEventConsumer {
 
+  /**
+   * Returns the events this consumer wants to be notified about. Called once when the consumer is
+   * set, events that are not included are skipped as early as possible.
+   *
+   * @return The interests of this consumer, all events by default.
+   */
+  default MatrixEventInterests getInterests() {
+
+    return MatrixEventInterests.all();
+  }
+
   /**
    * The client successfully connected to the server.
    *
@@ -0,0 +1,182 @@
+package org.synyx.matrix.bot;
+
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import org.synyx.matrix.bot.domain.MatrixMessageType;
+import org.synyx.matrix.bot.domain.MatrixRoomId;
+import org.synyx.matrix.bot.domain.MatrixUserId;
+
+/**
+ * Describes which events a {@link MatrixEventConsumer} wants to be notified about. Events nobody is
+ * interested in are skipped before any domain objects are created for them. If a sync filter is
+ * set using {@link MatrixClient#setSyncFilter(MatrixSyncFilter)}, the server is also not asked to
+ * send timeline event types that are not needed.
+ *
+ * <p>Every restriction left empty includes everything, so {@link #all()} includes all events.
+ */
+public class MatrixEventInterests {
+
+  private static final MatrixEventInterests ALL = builder().build();
+
+  private final Set<Callback> callbacks;
+  private final Set<MatrixMessageType> messageTypes;
+  private final Set<MatrixRoomId> roomIds;
+  private final Set<MatrixUserId> senderIds;
+  private final boolean pushedToSyncFilter;
+
+  private MatrixEventInterests(Builder builder) {
+
+    this.callbacks =
+        Set.copyOf(builder.callbacks.isEmpty() ? EnumSet.allOf(Callback.class) : builder.callbacks);
+    this.messageTypes = Set.copyOf(builder.messageTypes);
+    this.roomIds = Set.copyOf(builder.roomIds);
+    this.senderIds = Set.copyOf(builder.senderIds);
+    this.pushedToSyncFilter = builder.pushedToSyncFilter;
+  }
+
+  public static MatrixEventInterests all() {
+
+    return ALL;
+  }
+
+  public static Builder builder() {
+
+    return new Builder();
+  }
+
+  /** Returns the callbacks of the consumer that should be called. */
+  public Set<Callback> getCallbacks() {
+
+    return callbacks;
+  }
+
+  public boolean includes(Callback callback) {
+
+    return callbacks.contains(callback);
+  }
+
+  /**
+   * Returns the message types to notify about, or an empty set to notify about all message types.
+   */
+  public Set<MatrixMessageType> getMessageTypes() {
+
+    return messageTypes;
+  }
+
+  /** Returns the rooms to notify about, or an empty set to notify about all rooms. */
+  public Set<MatrixRoomId> getRoomIds() {
+
+    return roomIds;
+  }
+
+  /** Returns the senders to notify about, or an empty set to notify about all senders. */
+  public Set<MatrixUserId> getSenderIds() {
+
+    return senderIds;
+  }
+
+  public boolean isPushedToSyncFilter() {
+
+    return pushedToSyncFilter;
+  }
+
+  /** The callbacks of {@link MatrixEventConsumer} that are called for events of synced batches. */
+  public enum Callback {
+    MESSAGE,
+    INVITE_TO_ROOM,
+    USER_JOIN_ROOM,
+    USER_LEAVE_ROOM,
+    SELF_LEAVE_ROOM
+  }
+
+  public static class Builder {
+
+    private final Set<Callback> callbacks;
+    private final Set<MatrixMessageType> messageTypes;
+    private final Set<MatrixRoomId> roomIds;
+    private final Set<MatrixUserId> senderIds;
+    private boolean pushedToSyncFilter;
+
+    private Builder() {
+
+      this.callbacks = EnumSet.noneOf(Callback.class);
+      this.messageTypes = EnumSet.noneOf(MatrixMessageType.class);
+      this.roomIds = new LinkedHashSet<>();
+      this.senderIds = new LinkedHashSet<>();
+      this.pushedToSyncFilter = false;
+    }
+
+    /**
+     * Includes the given callback. If no callback is included explicitly, all callbacks are.
+     *
+     * @param callback The callback to include.
+     * @return This builder.
+     */
+    public Builder callback(Callback callback) {
+
+      callbacks.add(callback);
+      return this;
+    }
+
+    /**
+     * Only notifies about messages of the included types. Notice messages are never notified about.
+     *
+     * @param messageType The message type to include.
+     * @return This builder.
+     */
+    public Builder messageType(MatrixMessageType messageType) {
+
+      messageTypes.add(messageType);
+      return this;
+    }
+
+    /**
+     * Only notifies about events of the included rooms.
+     *
+     * @param roomId The id of the room to include.
+     * @return This builder.
+     */
+    public Builder room(MatrixRoomId roomId) {
+
+      roomIds.add(roomId);
+      return this;
+    }
+
+    /**
+     * Only notifies about events sent by the included users. Invites are included depending on the
+     * user that sent the invite.
+     *
+     * @param senderId The id of the user to include.
+     * @return This builder.
+     */
+    public Builder sender(MatrixUserId senderId) {
+
+      senderIds.add(senderId);
+      return this;
+    }
+
+    /**
+     * Also restricts the timeline events the server sends to the included rooms and senders, using
+     * the filter set with {@link MatrixClient#setSyncFilter(MatrixSyncFilter)}. No sync filter is
+     * set by default, so this only has an effect once one has been set explicitly. Otherwise the
+     * events are still received and only skipped by the client.
+     *
+     * <p>The client keeps its state up to date using timeline events as well. Name changes and
+     * members joining or leaving in other rooms or by other senders may be missing from the state
+     * until the next initial sync.
+     *
+     * @return This builder.
+     */
+    public Builder pushToSyncFilter() {
+
+      this.pushedToSyncFilter = true;
+      return this;
+    }
+
+    public MatrixEventInterests build() {
+
+      return new MatrixEventInterests(this);
+    }
+  }
+}
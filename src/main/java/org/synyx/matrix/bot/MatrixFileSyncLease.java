@@ -0,0 +1,116 @@
+package org.synyx.matrix.bot;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link MatrixSyncLease} held by locking a file, for replicas running on the same host or
+ * sharing a file system that supports locks. The lock is released by the operating system when the
+ * process holding it dies, so a standby replica takes over within seconds.
+ *
+ * <p>Several leases of one process may lock the same file, e.g. to run a standby client next to
+ * the active one. They share one channel to the file, because closing any channel of a file
+ * releases all locks the process holds on it.
+ */
+public class MatrixFileSyncLease implements MatrixSyncLease {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MatrixFileSyncLease.class);
+
+  // Guarded by itself, keyed by the canonical path of the file
+  private static final Map<Path, FileChannel> CHANNELS = new HashMap<>();
+
+  private final Path lockFile;
+  private Path canonicalLockFile;
+  private FileLock lock;
+
+  /**
+   * Creates a lease locking the given file. The file is created if it does not exist.
+   *
+   * @param lockFile The file to lock, the same for all replicas of the bot.
+   */
+  public MatrixFileSyncLease(Path lockFile) {
+
+    this.lockFile = lockFile;
+    this.canonicalLockFile = null;
+    this.lock = null;
+  }
+
+  @Override
+  public boolean tryAcquire() {
+
+    synchronized (CHANNELS) {
+      if (lock != null && lock.isValid()) {
+        return true;
+      }
+
+      lock = null;
+      try {
+        lock = getChannel().tryLock();
+      } catch (OverlappingFileLockException e) {
+        // Held by another lease of the same process, which keeps using the shared channel
+      } catch (IOException e) {
+        LOG.warn("Could not lock {}", lockFile, e);
+      }
+
+      return lock != null;
+    }
+  }
+
+  @Override
+  public void release() {
+
+    synchronized (CHANNELS) {
+      if (lock == null) {
+        return;
+      }
+
+      try {
+        lock.release();
+      } catch (IOException e) {
+        LOG.warn("Could not unlock {}", lockFile, e);
+      }
+      lock = null;
+
+      // No other lease of this process can hold a lock on the file while this one did
+      closeChannel();
+    }
+  }
+
+  private FileChannel getChannel() throws IOException {
+
+    if (canonicalLockFile == null) {
+      canonicalLockFile = lockFile.toFile().getCanonicalFile().toPath();
+    }
+
+    var channel = CHANNELS.get(canonicalLockFile);
+    if (channel == null || !channel.isOpen()) {
+      channel =
+          FileChannel.open(canonicalLockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+      CHANNELS.put(canonicalLockFile, channel);
+    }
+
+    return channel;
+  }
+
+  private void closeChannel() {
+
+    final var channel = CHANNELS.remove(canonicalLockFile);
+    if (channel == null) {
+      return;
+    }
+
+    try {
+      channel.close();
+    } catch (IOException e) {
+      LOG.warn("Could not close {}", lockFile, e);
+    }
+  }
+}
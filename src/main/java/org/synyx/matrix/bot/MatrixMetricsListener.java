@@ -0,0 +1,72 @@
+package org.synyx.matrix.bot;
+
+import java.time.Duration;
+
+/**
+ * An interface receiving measurements taken by the client, e.g. to bridge them to a metrics
+ * library. All methods have a default implementation that does nothing, so implementing classes
+ * only need to override whatever they want to record.
+ *
+ * <p>Methods are called on the threads performing the measured work, so implementations must be
+ * thread-safe and should return quickly. Durations of frequent measurements are passed as
+ * nanoseconds to avoid allocations.
+ */
+public interface MatrixMetricsListener {
+
+  /** A listener that ignores all measurements, used when no listener has been set. */
+  MatrixMetricsListener NONE = new MatrixMetricsListener() {};
+
+  /**
+   * A sync request was answered successfully. For streaming sync, the latency includes processing
+   * the rooms, since they are processed while the response is being read.
+   *
+   * @param latencyNanos The time from sending the request until the response body was read.
+   * @param responseBytes The size of the response body in bytes, after decompression.
+   */
+  default void onSyncResponse(long latencyNanos, long responseBytes) {}
+
+  /**
+   * A compressed sync response was decompressed. Only called if compression has been enabled using
+   * {@link MatrixClientBuilder#compressSyncResponses(boolean)} and the server made use of it.
+   *
+   * @param compressedBytes The size of the response body as transferred, in bytes.
+   * @param uncompressedBytes The size of the response body after decompression, in bytes.
+   */
+  default void onSyncResponseDecompressed(long compressedBytes, long uncompressedBytes) {}
+
+  /**
+   * A sync response was applied to the client state.
+   *
+   * @param eventCount The number of state, timeline and invite events of joined and invited rooms
+   *     in the response.
+   * @param synchronizationNanos The time spent applying the response to the client state, not
+   *     including event consumer callbacks.
+   */
+  default void onSyncBatchProcessed(int eventCount, long synchronizationNanos) {}
+
+  /**
+   * A callback of the {@link MatrixEventConsumer} returned or threw an exception.
+   *
+   * @param consumedEvent The kind of event the callback was called for, e.g. {@code "message"}.
+   * @param durationNanos The time spent in the callback.
+   */
+  default void onCallback(String consumedEvent, long durationNanos) {}
+
+  /**
+   * A request to the server was answered or failed. Sync requests are reported here as well as in
+   * {@link #onSyncResponse(long, long)}.
+   *
+   * @param endpoint The performed action, e.g. {@code "syncing"} or {@code "sending event"}.
+   * @param statusCode The HTTP status code of the response, or {@code -1} if no response was
+   *     received.
+   * @param latencyNanos The time from sending the request until the response was received.
+   */
+  default void onRequest(String endpoint, int statusCode, long latencyNanos) {}
+
+  /**
+   * Syncing failed and the client backs off before connecting again.
+   *
+   * @param delay The time the client waits before connecting again.
+   */
+  default void onBackoff(Duration delay) {}
+}
@@ -1,10 +1,97 @@
 package org.synyx.matrix.bot;
 
+import java.util.List;
 import java.util.Optional;
 
 public interface MatrixPersistedStateProvider {
 
   Optional<String> getLastBatch();
 
+  /**
+   * Stores the batch to continue syncing from. If event consumer callbacks run concurrently, a
+   * batch is only stored once its callbacks completed, which may happen on a callback thread
+   * instead of the syncing one. Batches are still stored one at a time and in order.
+   *
+   * @param value The batch to store.
+   */
   void setLastBatch(String value);
+
+  /**
+   * Returns the snapshot of the client state that was last stored using {@link
+   * #setStateSnapshot(String)}. If both a snapshot and a last batch are available on startup, the
+   * client restores its state from the snapshot and continues syncing from the last batch instead
+   * of performing a full initial sync.
+   *
+   * @return The last stored snapshot, or {@link Optional#empty()} if there is none.
+   */
+  default Optional<String> getStateSnapshot() {
+
+    return Optional.empty();
+  }
+
+  /**
+   * Stores a snapshot of the client state. The snapshot is an opaque string that should be returned
+   * unchanged by {@link #getStateSnapshot()}. It is only updated when the state changed and always
+   * before the corresponding {@link #setLastBatch(String)} call, on the same thread.
+   *
+   * @param snapshot The snapshot to store.
+   */
+  default void setStateSnapshot(String snapshot) {}
+
+  /**
+   * Returns the ids of the most recently notified events that were last stored using {@link
+   * #setRecentEventIds(List)}. They are used to avoid notifying about the same event twice when
+   * syncing again from a previous batch after a restart.
+   *
+   * @return The ids of the most recently notified events, oldest first.
+   */
+  default List<String> getRecentEventIds() {
+
+    return List.of();
+  }
+
+  /**
+   * Stores the ids of the most recently notified events. Called before {@link
+   * #setLastBatch(String)} on the same thread whenever new events have been notified.
+   *
+   * @param eventIds The ids of the most recently notified events, oldest first.
+   */
+  default void setRecentEventIds(List<String> eventIds) {}
+
+  /**
+   * Returns the session that was last stored using {@link #setSession(String)}. If a session of
+   * the configured user is available on startup, the client continues to use its access token and
+   * device instead of logging in with the password.
+   *
+   * @return The last stored session, or {@link Optional#empty()} if there is none.
+   */
+  default Optional<String> getSession() {
+
+    return Optional.empty();
+  }
+
+  /**
+   * Stores the session of the client after logging in or refreshing the access token. The session
+   * is an opaque string that should be returned unchanged by {@link #getSession()}. It contains the
+   * access token, so it should be stored as securely as the password. The access token is refreshed
+   * by whichever request finds it expired, so this may be called from threads other than the
+   * syncing one.
+   *
+   * @param session The session to store.
+   */
+  default void setSession(String session) {}
+
+  /**
+   * Returns the lease that has to be held to sync, if several replicas of the bot share this
+   * persisted state. Only the replica holding the lease syncs and stores batches, the others stand
+   * by: they keep a state restored from the latest snapshot and take over syncing from the latest
+   * batch once they acquire the lease, without a full initial sync. Events of the batch being
+   * processed when the lease changes hands may be notified by both replicas.
+   *
+   * @return The lease to hold while syncing, or {@link Optional#empty()} to always sync.
+   */
+  default Optional<MatrixSyncLease> getSyncLease() {
+
+    return Optional.empty();
+  }
 }
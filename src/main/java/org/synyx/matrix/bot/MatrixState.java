@@ -1,45 +1,281 @@
 package org.synyx.matrix.bot;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import org.synyx.matrix.bot.domain.MatrixRoom;
 import org.synyx.matrix.bot.domain.MatrixRoomAlias;
+import org.synyx.matrix.bot.domain.MatrixRoomId;
 import org.synyx.matrix.bot.domain.MatrixUserId;
 
+/**
+ * The rooms the client is part of. The state returned by {@link MatrixClient#getState()} is a
+ * read-only snapshot that is safe to be read from any thread and does not change when new batches
+ * are synced. Its rooms and users cannot be changed either.
+ */
 public class MatrixState {
 
   private final MatrixUserId ownUserId;
-  private final List<MatrixRoom> invitedRooms;
-  private final List<MatrixRoom> joinedRooms;
+  private final Map<MatrixRoomId, MatrixRoom> invitedRooms;
+  private final Map<MatrixRoomId, MatrixRoom> joinedRooms;
+  // Usually a single room per alias, but nothing prevents several rooms from claiming the same one
+  private final Map<MatrixRoomAlias, List<MatrixRoom>> joinedRoomsByCanonicalAlias;
+  private final boolean readOnly;
 
   public MatrixState(MatrixUserId ownUserId) {
 
+    this(ownUserId, new LinkedHashMap<>(), new LinkedHashMap<>(), new HashMap<>(), false);
+  }
+
+  private MatrixState(
+      MatrixUserId ownUserId,
+      Map<MatrixRoomId, MatrixRoom> invitedRooms,
+      Map<MatrixRoomId, MatrixRoom> joinedRooms,
+      Map<MatrixRoomAlias, List<MatrixRoom>> joinedRoomsByCanonicalAlias,
+      boolean readOnly) {
+
     this.ownUserId = ownUserId;
-    this.invitedRooms = new ArrayList<>();
-    this.joinedRooms = new ArrayList<>();
+    this.invitedRooms = invitedRooms;
+    this.joinedRooms = joinedRooms;
+    this.joinedRoomsByCanonicalAlias = joinedRoomsByCanonicalAlias;
+    this.readOnly = readOnly;
   }
 
   public MatrixUserId getOwnUserId() {
     return ownUserId;
   }
 
-  public List<MatrixRoom> getInvitedRooms() {
-    return invitedRooms;
+  /**
+   * Returns the rooms the client has been invited to.
+   *
+   * @return A read-only view of the invited rooms, which does not change if this is a read-only
+   *     snapshot.
+   */
+  public Collection<MatrixRoom> getInvitedRooms() {
+    return Collections.unmodifiableCollection(invitedRooms.values());
+  }
+
+  /**
+   * Returns the rooms the client is part of.
+   *
+   * @return A read-only view of the joined rooms, which does not change if this is a read-only
+   *     snapshot.
+   */
+  public Collection<MatrixRoom> getJoinedRooms() {
+    return Collections.unmodifiableCollection(joinedRooms.values());
   }
 
-  public List<MatrixRoom> getJoinedRooms() {
-    return joinedRooms;
+  public Optional<MatrixRoom> findInvitedRoomById(MatrixRoomId roomId) {
+
+    return Optional.ofNullable(invitedRooms.get(roomId));
   }
 
+  public Optional<MatrixRoom> findJoinedRoomById(MatrixRoomId roomId) {
+
+    return Optional.ofNullable(joinedRooms.get(roomId));
+  }
+
+  /**
+   * Looks up a joined room by its canonical alias. If several rooms claim the same alias, the one
+   * that claimed it most recently is returned.
+   */
   public Optional<MatrixRoom> findJoinedRoomByCanonicalAlias(MatrixRoomAlias alias) {
 
-    return joinedRooms.stream()
-        .filter(
-            room ->
-                room.getCanonicalAlias()
-                    .map(matrixRoomAlias -> matrixRoomAlias.equals(alias))
-                    .orElse(false))
-        .findFirst();
+    final var rooms = joinedRoomsByCanonicalAlias.getOrDefault(alias, List.of());
+    for (final var room : rooms.reversed()) {
+      if (room.getCanonicalAlias().map(alias::equals).orElse(false)) {
+        return Optional.of(room);
+      }
+    }
+
+    return Optional.empty();
+  }
+
+  public boolean isReadOnly() {
+
+    return readOnly;
+  }
+
+  /**
+   * Creates a copy of this state that cannot be changed.
+   *
+   * @return A read-only copy of this state.
+   */
+  public MatrixState toReadOnlyCopy() {
+
+    final var invitedRoomCopies = new LinkedHashMap<MatrixRoomId, MatrixRoom>();
+    invitedRooms.forEach((roomId, room) -> invitedRoomCopies.put(roomId, room.toReadOnlyCopy()));
+
+    final var joinedRoomCopies = new LinkedHashMap<MatrixRoomId, MatrixRoom>();
+    final var joinedRoomCopiesByCanonicalAlias = new HashMap<MatrixRoomAlias, List<MatrixRoom>>();
+    joinedRooms.forEach(
+        (roomId, room) -> {
+          final var copy = room.toReadOnlyCopy();
+          joinedRoomCopies.put(roomId, copy);
+          addToCanonicalAliasIndex(joinedRoomCopiesByCanonicalAlias, copy);
+        });
+
+    return new MatrixState(
+        ownUserId,
+        Collections.unmodifiableMap(invitedRoomCopies),
+        Collections.unmodifiableMap(joinedRoomCopies),
+        Collections.unmodifiableMap(joinedRoomCopiesByCanonicalAlias),
+        true);
+  }
+
+  /**
+   * Creates another read-only copy of a state, starting from this earlier read-only copy of it.
+   * Only the rooms with the given ids are copied again, the copies of all other rooms are shared
+   * with this copy.
+   *
+   * @param state The state this is an earlier read-only copy of.
+   * @param changedRoomIds The ids of the rooms that have been added, removed or changed since this
+   *     copy has been created.
+   * @return A read-only copy of the given state.
+   */
+  public MatrixState toUpdatedReadOnlyCopy(MatrixState state, Set<MatrixRoomId> changedRoomIds) {
+
+    if (!readOnly) {
+      throw new IllegalStateException("Only read-only copies can be updated");
+    }
+
+    final var invitedRoomCopies = new LinkedHashMap<>(invitedRooms);
+    final var joinedRoomCopies = new LinkedHashMap<>(joinedRooms);
+    final var joinedRoomCopiesByCanonicalAlias = new HashMap<>(joinedRoomsByCanonicalAlias);
+    for (final var roomId : changedRoomIds) {
+      replaceRoomCopy(invitedRoomCopies, roomId, state.invitedRooms.get(roomId));
+
+      final var previousCopy =
+          replaceRoomCopy(joinedRoomCopies, roomId, state.joinedRooms.get(roomId));
+      if (previousCopy != null) {
+        removeFromCanonicalAliasIndex(joinedRoomCopiesByCanonicalAlias, previousCopy);
+      }
+
+      final var copy = joinedRoomCopies.get(roomId);
+      if (copy != null) {
+        addToCanonicalAliasIndex(joinedRoomCopiesByCanonicalAlias, copy);
+      }
+    }
+
+    return new MatrixState(
+        ownUserId,
+        Collections.unmodifiableMap(invitedRoomCopies),
+        Collections.unmodifiableMap(joinedRoomCopies),
+        Collections.unmodifiableMap(joinedRoomCopiesByCanonicalAlias),
+        true);
+  }
+
+  private static MatrixRoom replaceRoomCopy(
+      Map<MatrixRoomId, MatrixRoom> roomCopies, MatrixRoomId roomId, MatrixRoom room) {
+
+    if (room == null) {
+      return roomCopies.remove(roomId);
+    }
+
+    return roomCopies.put(roomId, room.toReadOnlyCopy());
+  }
+
+  public void addInvitedRoom(MatrixRoom room) {
+
+    checkWritable();
+    invitedRooms.put(room.getId(), room);
+  }
+
+  public void addJoinedRoom(MatrixRoom room) {
+
+    checkWritable();
+    final var previousRoom = joinedRooms.put(room.getId(), room);
+    if (previousRoom != null) {
+      removeFromCanonicalAliasIndex(joinedRoomsByCanonicalAlias, previousRoom);
+    }
+
+    addToCanonicalAliasIndex(joinedRoomsByCanonicalAlias, room);
+  }
+
+  public Optional<MatrixRoom> removeInvitedRoom(MatrixRoomId roomId) {
+
+    checkWritable();
+    return Optional.ofNullable(invitedRooms.remove(roomId));
+  }
+
+  public Optional<MatrixRoom> removeJoinedRoom(MatrixRoomId roomId) {
+
+    checkWritable();
+    final var maybeRoom = Optional.ofNullable(joinedRooms.remove(roomId));
+    maybeRoom.ifPresent(room -> removeFromCanonicalAliasIndex(joinedRoomsByCanonicalAlias, room));
+
+    return maybeRoom;
+  }
+
+  /**
+   * Sets the canonical alias of a room while keeping the alias lookup of {@link
+   * #findJoinedRoomByCanonicalAlias(MatrixRoomAlias)} up to date. Aliases of rooms that are part of
+   * this state should always be changed using this method.
+   *
+   * @param room The room to change the canonical alias of.
+   * @param alias The new canonical alias of the room.
+   */
+  public void updateCanonicalAlias(MatrixRoom room, MatrixRoomAlias alias) {
+
+    checkWritable();
+    final var joined = joinedRooms.get(room.getId()) == room;
+    if (joined) {
+      removeFromCanonicalAliasIndex(joinedRoomsByCanonicalAlias, room);
+    }
+
+    room.setCanonicalAlias(alias);
+
+    if (joined) {
+      addToCanonicalAliasIndex(joinedRoomsByCanonicalAlias, room);
+    }
+  }
+
+  /**
+   * Adds a room to the rooms claiming its canonical alias. The lists of rooms are never changed but
+   * replaced, so they can be shared with read-only copies of the index.
+   */
+  private static void addToCanonicalAliasIndex(
+      Map<MatrixRoomAlias, List<MatrixRoom>> index, MatrixRoom room) {
+
+    room.getCanonicalAlias()
+        .ifPresent(
+            alias ->
+                index.merge(
+                    alias,
+                    List.of(room),
+                    (rooms, addedRooms) -> {
+                      final var mergedRooms = new ArrayList<>(rooms);
+                      mergedRooms.addAll(addedRooms);
+                      return List.copyOf(mergedRooms);
+                    }));
+  }
+
+  /** Removes a room from the rooms claiming its canonical alias, keeping all other rooms. */
+  private static void removeFromCanonicalAliasIndex(
+      Map<MatrixRoomAlias, List<MatrixRoom>> index, MatrixRoom room) {
+
+    room.getCanonicalAlias()
+        .ifPresent(
+            alias ->
+                index.computeIfPresent(
+                    alias,
+                    (ignored, rooms) -> {
+                      final var remainingRooms =
+                          rooms.stream().filter(claimingRoom -> claimingRoom != room).toList();
+                      return remainingRooms.isEmpty() ? null : remainingRooms;
+                    }));
+  }
+
+  private void checkWritable() {
+
+    if (readOnly) {
+      throw new UnsupportedOperationException("State snapshots are read-only");
+    }
   }
 }
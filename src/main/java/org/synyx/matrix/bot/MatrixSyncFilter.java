@@ -0,0 +1,194 @@
+package org.synyx.matrix.bot;
+
+import java.util.LinkedHashSet;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Describes which data the matrix server should include when syncing. The event types needed by the
+ * client itself to keep its state up to date and the ones needed to call the registered {@link
+ * MatrixEventConsumer} are always included, everything else is left out unless requested here.
+ */
+public class MatrixSyncFilter {
+
+  private final Set<String> stateEventTypes;
+  private final Set<String> timelineEventTypes;
+  private final Integer timelineLimit;
+  private final boolean presenceIncluded;
+  private final boolean accountDataIncluded;
+  private final boolean ephemeralIncluded;
+  private final boolean membersLazyLoaded;
+
+  private MatrixSyncFilter(Builder builder) {
+
+    this.stateEventTypes = Set.copyOf(builder.stateEventTypes);
+    this.timelineEventTypes = Set.copyOf(builder.timelineEventTypes);
+    this.timelineLimit = builder.timelineLimit;
+    this.presenceIncluded = builder.presenceIncluded;
+    this.accountDataIncluded = builder.accountDataIncluded;
+    this.ephemeralIncluded = builder.ephemeralIncluded;
+    this.membersLazyLoaded = builder.membersLazyLoaded;
+  }
+
+  public static Builder builder() {
+
+    return new Builder();
+  }
+
+  /**
+   * Returns the additional state event types to include on top of the ones required by the client.
+   */
+  public Set<String> getStateEventTypes() {
+
+    return stateEventTypes;
+  }
+
+  /**
+   * Returns the additional timeline event types to include on top of the ones required by the
+   * client.
+   */
+  public Set<String> getTimelineEventTypes() {
+
+    return timelineEventTypes;
+  }
+
+  public Optional<Integer> getTimelineLimit() {
+
+    return Optional.ofNullable(timelineLimit);
+  }
+
+  public boolean isPresenceIncluded() {
+
+    return presenceIncluded;
+  }
+
+  public boolean isAccountDataIncluded() {
+
+    return accountDataIncluded;
+  }
+
+  public boolean isEphemeralIncluded() {
+
+    return ephemeralIncluded;
+  }
+
+  public boolean isMembersLazyLoaded() {
+
+    return membersLazyLoaded;
+  }
+
+  public static class Builder {
+
+    private final Set<String> stateEventTypes;
+    private final Set<String> timelineEventTypes;
+    private Integer timelineLimit;
+    private boolean presenceIncluded;
+    private boolean accountDataIncluded;
+    private boolean ephemeralIncluded;
+    private boolean membersLazyLoaded;
+
+    private Builder() {
+
+      this.stateEventTypes = new LinkedHashSet<>();
+      this.timelineEventTypes = new LinkedHashSet<>();
+      this.timelineLimit = null;
+      this.presenceIncluded = false;
+      this.accountDataIncluded = false;
+      this.ephemeralIncluded = false;
+      this.membersLazyLoaded = false;
+    }
+
+    /**
+     * Additionally includes state events of the given type.
+     *
+     * @param eventType The event type to include, e.g. {@code m.room.topic}.
+     * @return This builder.
+     */
+    public Builder stateEventType(String eventType) {
+
+      stateEventTypes.add(eventType);
+      return this;
+    }
+
+    /**
+     * Additionally includes timeline events of the given type.
+     *
+     * @param eventType The event type to include, e.g. {@code m.reaction}.
+     * @return This builder.
+     */
+    public Builder timelineEventType(String eventType) {
+
+      timelineEventTypes.add(eventType);
+      return this;
+    }
+
+    /**
+     * Limits the number of timeline events the server sends per room and sync.
+     *
+     * @param timelineLimit The maximum number of timeline events per room, at least {@code 1}.
+     * @return This builder.
+     */
+    public Builder timelineLimit(int timelineLimit) {
+
+      if (timelineLimit <= 0) {
+        throw new IllegalArgumentException("Timeline limit must be positive");
+      }
+
+      this.timelineLimit = timelineLimit;
+      return this;
+    }
+
+    /**
+     * Includes presence updates in the sync response.
+     *
+     * @return This builder.
+     */
+    public Builder includePresence() {
+
+      this.presenceIncluded = true;
+      return this;
+    }
+
+    /**
+     * Includes global and per room account data in the sync response.
+     *
+     * @return This builder.
+     */
+    public Builder includeAccountData() {
+
+      this.accountDataIncluded = true;
+      return this;
+    }
+
+    /**
+     * Includes ephemeral events like typing notifications and receipts in the sync response.
+     *
+     * @return This builder.
+     */
+    public Builder includeEphemeral() {
+
+      this.ephemeralIncluded = true;
+      return this;
+    }
+
+    /**
+     * Lets the server only send the membership of users that sent events in a sync response,
+     * instead of all members of all rooms. This greatly reduces the size of the initial sync for
+     * large rooms. Other members are fetched from the server when looked up using {@link
+     * org.synyx.matrix.bot.domain.MatrixRoom#findUserInRoomById} and cached for a while, see
+     * {@link MatrixClient#setMemberCacheCapacity(int)}.
+     *
+     * @return This builder.
+     */
+    public Builder lazyLoadMembers() {
+
+      this.membersLazyLoaded = true;
+      return this;
+    }
+
+    public MatrixSyncFilter build() {
+
+      return new MatrixSyncFilter(this);
+    }
+  }
+}
@@ -0,0 +1,23 @@
+package org.synyx.matrix.bot;
+
+/**
+ * A lease allowing only one of several replicas of a bot to sync at a time, e.g. to run a standby
+ * replica that takes over when the active one fails. All replicas must use the same {@link
+ * MatrixPersistedStateProvider} and leases referring to the same lock, see {@link
+ * MatrixPersistedStateProvider#getSyncLease()}.
+ *
+ * <p>Implementations are called from the thread calling {@link MatrixClient#syncContinuous()}.
+ */
+public interface MatrixSyncLease {
+
+  /**
+   * Acquires the lease if no other replica holds it, or renews it if this replica already does.
+   * Called before syncing, before every sync batch is persisted and periodically while standing by.
+   *
+   * @return {@code true} if this replica holds the lease, {@code false} otherwise.
+   */
+  boolean tryAcquire();
+
+  /** Releases the lease if this replica holds it. Called when the client stops syncing. */
+  void release();
+}
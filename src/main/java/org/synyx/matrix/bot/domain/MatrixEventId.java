@@ -1,64 +1,67 @@
 package org.synyx.matrix.bot.domain;
 
-import java.util.Objects;
 import java.util.Optional;
-import java.util.regex.Pattern;
 
 public class MatrixEventId {
 
   /*
   https://spec.matrix.org/v1.14/appendices/#event-ids
+  Accepts the same values as ^\$(.+)$
    */
-  private static final Pattern EVENT_ID_PATTERN = Pattern.compile("^\\$(.+)$");
+  private static final char SIGIL = '$';
 
-  private final String opaqueId;
+  private final String formatted;
+  private final int hash;
 
-  private MatrixEventId(String opaqueId) {
+  private MatrixEventId(String formatted) {
 
-    this.opaqueId = opaqueId;
+    this.formatted = formatted;
+    this.hash = formatted.hashCode();
   }
 
   public static Optional<MatrixEventId> from(String value) {
 
-    final var matcher = EVENT_ID_PATTERN.matcher(value);
-    if (!matcher.matches()) {
+    if (value.isEmpty()
+        || value.charAt(0) != SIGIL
+        || !MatrixIdentifiers.isNonEmptyLine(value, 1)) {
       return Optional.empty();
     }
 
-    final var opaqueId = matcher.group(1);
-
-    return Optional.of(new MatrixEventId(opaqueId));
+    return Optional.of(new MatrixEventId(value));
   }
 
   public String getOpaqueId() {
 
-    return opaqueId;
+    return formatted.substring(1);
   }
 
   public String getFormatted() {
 
-    return "$%s".formatted(opaqueId);
+    return formatted;
   }
 
   @Override
   public boolean equals(Object o) {
 
+    if (this == o) {
+      return true;
+    }
     if (o == null || getClass() != o.getClass()) {
       return false;
     }
     MatrixEventId that = (MatrixEventId) o;
-    return Objects.equals(opaqueId, that.opaqueId);
+    return hash == that.hash && formatted.equals(that.formatted);
   }
 
   @Override
   public int hashCode() {
 
-    return Objects.hashCode(opaqueId);
+    return hash;
   }
 
   @Override
   public String toString() {
 
-    return getFormatted();
+    return formatted;
   }
 }
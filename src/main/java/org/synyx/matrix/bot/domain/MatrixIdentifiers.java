@@ -0,0 +1,124 @@
+package org.synyx.matrix.bot.domain;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Parsing helpers and the intern cache shared by the Matrix identifier types.
+ *
+ * <p>User and room ids are repeated in almost every event of a sync response. When the intern cache
+ * is enabled, parsing an id that has been seen before returns the same shared instance instead of
+ * parsing and allocating it again.
+ */
+public final class MatrixIdentifiers {
+
+  static final InternCache<MatrixUserId> USER_IDS = new InternCache<>();
+  static final InternCache<MatrixRoomId> ROOM_IDS = new InternCache<>();
+
+  private MatrixIdentifiers() {}
+
+  /**
+   * Sets the maximum number of user and room ids that are kept in the intern cache. The cache is
+   * disabled by default. Once it is full, it is cleared and filled again with the ids seen next.
+   *
+   * @param capacity The maximum number of cached ids per identifier type, {@code 0} disables the
+   *     cache.
+   */
+  public static void setInternCacheCapacity(int capacity) {
+
+    if (capacity < 0) {
+      throw new IllegalArgumentException("Capacity must not be negative");
+    }
+
+    USER_IDS.setCapacity(capacity);
+    ROOM_IDS.setCapacity(capacity);
+  }
+
+  /*
+  Equivalent to matching ^<sigil>([^:\x00]+):(.+)$ and returning the position of the separating
+  colon, or -1 if the value does not match.
+   */
+  static int findDomainSeparator(String value, char sigil) {
+
+    final var length = value.length();
+    if (length < 4 || value.charAt(0) != sigil) {
+      return -1;
+    }
+
+    var separator = 1;
+    while (separator < length) {
+      final var c = value.charAt(separator);
+      if (c == ':') {
+        break;
+      }
+      if (c == '\0') {
+        return -1;
+      }
+      separator++;
+    }
+
+    if (separator == 1 || !isNonEmptyLine(value, separator + 1)) {
+      return -1;
+    }
+
+    return separator;
+  }
+
+  /*
+  Equivalent to matching (.+)$ from the given position to the end of the value.
+   */
+  static boolean isNonEmptyLine(String value, int from) {
+
+    final var length = value.length();
+    if (from >= length) {
+      return false;
+    }
+
+    for (var i = from; i < length; i++) {
+      switch (value.charAt(i)) {
+        case '\n', '\r', '\u0085', '\u2028', '\u2029' -> {
+          return false;
+        }
+        default -> {}
+      }
+    }
+
+    return true;
+  }
+
+  static final class InternCache<T> {
+
+    private final ConcurrentHashMap<String, T> entries;
+    private volatile int capacity;
+
+    private InternCache() {
+
+      this.entries = new ConcurrentHashMap<>();
+      this.capacity = 0;
+    }
+
+    T get(String value) {
+
+      return capacity == 0 ? null : entries.get(value);
+    }
+
+    T intern(String value, T identifier) {
+
+      if (capacity == 0) {
+        return identifier;
+      }
+
+      if (entries.size() >= capacity) {
+        entries.clear();
+      }
+
+      final var existing = entries.putIfAbsent(value, identifier);
+      return existing != null ? existing : identifier;
+    }
+
+    private void setCapacity(int capacity) {
+
+      this.capacity = capacity;
+      entries.clear();
+    }
+  }
+}
@@ -1,7 +1,9 @@
 package org.synyx.matrix.bot.domain;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Optional;
 
 public class MatrixRoom {
@@ -21,12 +23,28 @@ public class MatrixRoom {
    */
   private String name;
 
-  private final List<MatrixUser> roomUsers;
+  /**
+   * The users that joined the room, indexed by their id. If members are lazy loaded, these are only
+   * the members that sent events since the client connected.
+   */
+  private final Map<MatrixUserId, MatrixUser> roomUsers;
+
+  /** The number of joined members as reported by the server, if members are lazy loaded. */
+  private Integer joinedMemberCount;
 
-  private MatrixRoom(MatrixRoomId id) {
+  /** Looks up members missing from {@link #roomUsers}, if members are lazy loaded. */
+  private MatrixRoomMemberLoader memberLoader;
+
+  /** Whether this room is part of a read-only snapshot of the state. */
+  private final boolean readOnly;
+
+  private MatrixRoom(MatrixRoomId id, Map<MatrixUserId, MatrixUser> roomUsers, boolean readOnly) {
 
     this.id = id;
-    this.roomUsers = new ArrayList<>();
+    this.roomUsers = roomUsers;
+    this.joinedMemberCount = null;
+    this.memberLoader = null;
+    this.readOnly = readOnly;
   }
 
   public MatrixRoomId getId() {
@@ -36,17 +54,59 @@ public class MatrixRoom {
 
   public void setCanonicalAlias(MatrixRoomAlias canonicalAlias) {
 
+    checkWritable();
     this.canonicalAlias = canonicalAlias;
   }
 
   public void setName(String name) {
 
+    checkWritable();
     this.name = name;
   }
 
-  public List<MatrixUser> getRoomUsers() {
+  /**
+   * Returns the users that joined the room. If members are lazy loaded, only the members that sent
+   * events since the client connected are included.
+   *
+   * @return A read-only view of the users in the room, which does not change if this room is
+   *     read-only.
+   */
+  public Collection<MatrixUser> getRoomUsers() {
+
+    return Collections.unmodifiableCollection(roomUsers.values());
+  }
+
+  public int getJoinedMemberCount() {
+
+    return joinedMemberCount != null ? joinedMemberCount : roomUsers.size();
+  }
+
+  public void setJoinedMemberCount(Integer joinedMemberCount) {
+
+    checkWritable();
+    this.joinedMemberCount = joinedMemberCount;
+  }
+
+  public void setMemberLoader(MatrixRoomMemberLoader memberLoader) {
+
+    checkWritable();
+    this.memberLoader = memberLoader;
+  }
+
+  public void addUser(MatrixUser user) {
+
+    checkWritable();
+    roomUsers.put(user.getId(), user);
+  }
+
+  public Optional<MatrixUser> removeUser(MatrixUserId userId) {
+
+    checkWritable();
+    if (memberLoader != null) {
+      memberLoader.invalidate(id);
+    }
 
-    return roomUsers;
+    return Optional.ofNullable(roomUsers.remove(userId));
   }
 
   public static Optional<MatrixRoom> from(MatrixRoomId id) {
@@ -55,7 +115,32 @@ public class MatrixRoom {
       return Optional.empty();
     }
 
-    return Optional.of(new MatrixRoom(id));
+    return Optional.of(new MatrixRoom(id, new LinkedHashMap<>(), false));
+  }
+
+  public boolean isReadOnly() {
+
+    return readOnly;
+  }
+
+  /**
+   * Creates a copy of this room that cannot be changed, for read-only snapshots of the state. The
+   * users of the room are made read-only and shared with the copy instead of being copied.
+   *
+   * @return A read-only copy of this room.
+   */
+  public MatrixRoom toReadOnlyCopy() {
+
+    roomUsers.values().forEach(MatrixUser::makeReadOnly);
+
+    final var copy =
+        new MatrixRoom(id, Collections.unmodifiableMap(new LinkedHashMap<>(roomUsers)), true);
+    copy.canonicalAlias = canonicalAlias;
+    copy.name = name;
+    copy.joinedMemberCount = joinedMemberCount;
+    copy.memberLoader = memberLoader;
+
+    return copy;
   }
 
   public Optional<MatrixRoomAlias> getCanonicalAlias() {
@@ -68,8 +153,40 @@ public class MatrixRoom {
     return Optional.ofNullable(name);
   }
 
+  /**
+   * Looks up a user that joined the room. If members are lazy loaded and the user has not sent any
+   * events since the client connected, the members of the room are fetched from the server, which
+   * blocks the calling thread.
+   *
+   * @param userId The id of the user to look up.
+   * @return The user if they joined the room.
+   */
   public Optional<MatrixUser> findUserInRoomById(MatrixUserId userId) {
 
-    return roomUsers.stream().filter(matrixUser -> matrixUser.getId().equals(userId)).findAny();
+    final var user = roomUsers.get(userId);
+    if (user != null || memberLoader == null) {
+      return Optional.ofNullable(user);
+    }
+
+    return memberLoader.findMember(id, userId);
+  }
+
+  /**
+   * Looks up a user among the members known from syncing, without fetching lazy loaded members from
+   * the server.
+   *
+   * @param userId The id of the user to look up.
+   * @return The user if they are a known member of the room.
+   */
+  public Optional<MatrixUser> findSyncedUserInRoomById(MatrixUserId userId) {
+
+    return Optional.ofNullable(roomUsers.get(userId));
+  }
+
+  private void checkWritable() {
+
+    if (readOnly) {
+      throw new UnsupportedOperationException("Room %s is read-only".formatted(id));
+    }
   }
 }
@@ -1,77 +1,78 @@
 package org.synyx.matrix.bot.domain;
 
-import java.util.Objects;
 import java.util.Optional;
-import java.util.regex.Pattern;
 
 public class MatrixRoomAlias {
 
   /*
   https://spec.matrix.org/v1.14/appendices/#room-aliases
+  Accepts the same values as ^#([^:\x00]+):(.+)$
    */
-  private static final Pattern ROOM_ALIAS_PATTERN = Pattern.compile("^#([^:\\x00]+):(.+)$");
+  private static final char SIGIL = '#';
 
-  private final String localPart;
-  private final String domain;
+  private final String formatted;
+  private final int separator;
+  private final int hash;
 
-  private MatrixRoomAlias(String localPart, String domain) {
+  private MatrixRoomAlias(String formatted, int separator) {
 
-    this.localPart = localPart;
-    this.domain = domain;
+    this.formatted = formatted;
+    this.separator = separator;
+    this.hash = formatted.hashCode();
   }
 
   public static Optional<MatrixRoomAlias> from(String value) {
 
-    final var matcher = ROOM_ALIAS_PATTERN.matcher(value);
-    if (!matcher.matches()) {
+    final var separator = MatrixIdentifiers.findDomainSeparator(value, SIGIL);
+    if (separator < 0) {
       return Optional.empty();
     }
 
-    final var localPart = matcher.group(1);
-    final var domain = matcher.group(2);
-
-    return Optional.of(new MatrixRoomAlias(localPart, domain));
+    return Optional.of(new MatrixRoomAlias(value, separator));
   }
 
   public static Optional<MatrixRoomAlias> build(String localPart, String domain) {
 
-    return from("#%s:%s".formatted(localPart, domain));
+    return from(SIGIL + localPart + ":" + domain);
   }
 
   public String getLocalPart() {
 
-    return localPart;
+    return formatted.substring(1, separator);
   }
 
   public String getDomain() {
 
-    return domain;
+    return formatted.substring(separator + 1);
   }
 
   public String getFormatted() {
 
-    return "#%s:%s".formatted(localPart, domain);
+    return formatted;
   }
 
   @Override
   public boolean equals(Object o) {
 
+    if (this == o) {
+      return true;
+    }
     if (o == null || getClass() != o.getClass()) {
       return false;
     }
     MatrixRoomAlias that = (MatrixRoomAlias) o;
-    return Objects.equals(localPart, that.localPart) && Objects.equals(domain, that.domain);
+    return hash == that.hash && formatted.equals(that.formatted);
   }
 
   @Override
   public int hashCode() {
 
-    return Objects.hash(localPart, domain);
+    return hash;
   }
 
   @Override
   public String toString() {
 
-    return getFormatted();
+    return formatted;
   }
 }
@@ -1,72 +1,79 @@
 package org.synyx.matrix.bot.domain;
 
-import java.util.Objects;
 import java.util.Optional;
-import java.util.regex.Pattern;
 
 public class MatrixRoomId {
 
   /*
   https://spec.matrix.org/v1.14/appendices/#room-ids
+  Accepts the same values as ^!([^:\x00]+):(.+)$
    */
-  private static final Pattern ROOM_ID_PATTERN = Pattern.compile("^!([^:\\x00]+):(.+)$");
+  private static final char SIGIL = '!';
 
-  private final String opaqueId;
-  private final String domain;
+  private final String formatted;
+  private final int separator;
+  private final int hash;
 
-  private MatrixRoomId(String opaqueId, String domain) {
+  private MatrixRoomId(String formatted, int separator) {
 
-    this.opaqueId = opaqueId;
-    this.domain = domain;
+    this.formatted = formatted;
+    this.separator = separator;
+    this.hash = formatted.hashCode();
   }
 
   public static Optional<MatrixRoomId> from(String value) {
 
-    final var matcher = ROOM_ID_PATTERN.matcher(value);
-    if (!matcher.matches()) {
-      return Optional.empty();
+    final var cached = MatrixIdentifiers.ROOM_IDS.get(value);
+    if (cached != null) {
+      return Optional.of(cached);
     }
 
-    final var opaqueId = matcher.group(1);
-    final var domain = matcher.group(2);
+    final var separator = MatrixIdentifiers.findDomainSeparator(value, SIGIL);
+    if (separator < 0) {
+      return Optional.empty();
+    }
 
-    return Optional.of(new MatrixRoomId(opaqueId, domain));
+    return Optional.of(
+        MatrixIdentifiers.ROOM_IDS.intern(value, new MatrixRoomId(value, separator)));
   }
 
   public String getOpaqueId() {
 
-    return opaqueId;
+    return formatted.substring(1, separator);
   }
 
   public String getDomain() {
 
-    return domain;
+    return formatted.substring(separator + 1);
   }
 
   public String getFormatted() {
 
-    return "!%s:%s".formatted(opaqueId, domain);
+    return formatted;
   }
 
   @Override
   public boolean equals(Object o) {
 
+    if (this == o) {
+      return true;
+    }
     if (o == null || getClass() != o.getClass()) {
       return false;
     }
     MatrixRoomId that = (MatrixRoomId) o;
-    return Objects.equals(opaqueId, that.opaqueId) && Objects.equals(domain, that.domain);
+    return hash == that.hash && formatted.equals(that.formatted);
   }
 
   @Override
   public int hashCode() {
 
-    return Objects.hash(opaqueId, domain);
+    return hash;
   }
 
   @Override
   public String toString() {
 
-    return getFormatted();
+    return formatted;
   }
 }
@@ -0,0 +1,26 @@
+package org.synyx.matrix.bot.domain;
+
+import java.util.Optional;
+
+/**
+ * Looks up members of a room that are not part of the synced state, which is the case for most
+ * members if room members are lazy loaded.
+ */
+public interface MatrixRoomMemberLoader {
+
+  /**
+   * Looks up a member of a room, fetching the members of the room from the server if necessary.
+   *
+   * @param roomId The id of the room.
+   * @param userId The id of the user to look up.
+   * @return The user if they joined the room, empty if they did not or could not be loaded.
+   */
+  Optional<MatrixUser> findMember(MatrixRoomId roomId, MatrixUserId userId);
+
+  /**
+   * Forgets previously loaded members of a room, e.g. because its membership has changed.
+   *
+   * @param roomId The id of the room.
+   */
+  void invalidate(MatrixRoomId roomId);
+}
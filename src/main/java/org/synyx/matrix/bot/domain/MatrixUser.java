@@ -7,10 +7,14 @@ public class MatrixUser {
   private final MatrixUserId id;
   private String displayName;
 
+  /** Whether this user is shared with read-only snapshots of the state and must not change. */
+  private boolean readOnly;
+
   private MatrixUser(MatrixUserId id) {
 
     this.id = id;
     this.displayName = null;
+    this.readOnly = false;
   }
 
   public static Optional<MatrixUser> from(MatrixUserId id) {
@@ -34,6 +38,41 @@ public class MatrixUser {
 
   public void setDisplayName(String displayName) {
 
+    checkWritable();
     this.displayName = displayName;
   }
+
+  public boolean isReadOnly() {
+
+    return readOnly;
+  }
+
+  /**
+   * Prevents any further changes to this user, so it can be shared with read-only snapshots of the
+   * state. Changes have to be made to a copy instead, see {@link #toWritableCopy()}.
+   */
+  public void makeReadOnly() {
+
+    readOnly = true;
+  }
+
+  /**
+   * Creates a copy of this user that can be changed.
+   *
+   * @return A writable copy of this user.
+   */
+  public MatrixUser toWritableCopy() {
+
+    final var copy = new MatrixUser(id);
+    copy.displayName = displayName;
+
+    return copy;
+  }
+
+  private void checkWritable() {
+
+    if (readOnly) {
+      throw new UnsupportedOperationException("User %s is read-only".formatted(id));
+    }
+  }
 }
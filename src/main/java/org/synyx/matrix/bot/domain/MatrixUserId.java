@@ -1,73 +1,80 @@
 package org.synyx.matrix.bot.domain;
 
-import java.util.Objects;
 import java.util.Optional;
-import java.util.regex.Pattern;
 
 public class MatrixUserId {
 
   /*
   While newer user IDs follow a stricter pattern, historical IDs are more lenient:
   https://spec.matrix.org/v1.14/appendices/#user-identifiers
+  Accepts the same values as ^@([^:\x00]+):(.+)$
    */
-  private static final Pattern USER_ID_PATTERN = Pattern.compile("^@([^:\\x00]+):(.+)$");
+  private static final char SIGIL = '@';
 
-  private final String localPart;
-  private final String domain;
+  private final String formatted;
+  private final int separator;
+  private final int hash;
 
-  private MatrixUserId(String localPart, String domain) {
+  private MatrixUserId(String formatted, int separator) {
 
-    this.localPart = localPart;
-    this.domain = domain;
+    this.formatted = formatted;
+    this.separator = separator;
+    this.hash = formatted.hashCode();
   }
 
   public static Optional<MatrixUserId> from(String value) {
 
-    final var matcher = USER_ID_PATTERN.matcher(value);
-    if (!matcher.matches()) {
-      return Optional.empty();
+    final var cached = MatrixIdentifiers.USER_IDS.get(value);
+    if (cached != null) {
+      return Optional.of(cached);
     }
 
-    final var localPart = matcher.group(1);
-    final var domain = matcher.group(2);
+    final var separator = MatrixIdentifiers.findDomainSeparator(value, SIGIL);
+    if (separator < 0) {
+      return Optional.empty();
+    }
 
-    return Optional.of(new MatrixUserId(localPart, domain));
+    return Optional.of(
+        MatrixIdentifiers.USER_IDS.intern(value, new MatrixUserId(value, separator)));
   }
 
   public String getLocalPart() {
 
-    return localPart;
+    return formatted.substring(1, separator);
   }
 
   public String getDomain() {
 
-    return domain;
+    return formatted.substring(separator + 1);
   }
 
   public String getFormatted() {
 
-    return "@%s:%s".formatted(localPart, domain);
+    return formatted;
   }
 
   @Override
   public boolean equals(Object o) {
 
+    if (this == o) {
+      return true;
+    }
     if (o == null || getClass() != o.getClass()) {
       return false;
     }
     MatrixUserId that = (MatrixUserId) o;
-    return Objects.equals(localPart, that.localPart) && Objects.equals(domain, that.domain);
+    return hash == that.hash && formatted.equals(that.formatted);
   }
 
   @Override
   public int hashCode() {
 
-    return Objects.hash(localPart, domain);
+    return hash;
   }
 
   @Override
   public String toString() {
 
-    return getFormatted();
+    return formatted;
   }
 }
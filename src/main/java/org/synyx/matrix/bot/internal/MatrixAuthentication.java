@@ -3,19 +3,27 @@ package org.synyx.matrix.bot.internal;
 import java.util.Optional;
 import org.synyx.matrix.bot.domain.MatrixUserId;
 
+/**
+ * The credentials and session of the client. The session may be read and refreshed by requests
+ * running on any thread.
+ */
 public class MatrixAuthentication {
 
   private final String username;
   private final String password;
 
-  private MatrixUserId userId;
-  private String bearerToken;
+  private volatile MatrixUserId userId;
+  private volatile String bearerToken;
+  private volatile String refreshToken;
+  private volatile String deviceId;
 
   public MatrixAuthentication(String username, String password) {
 
     this.username = username;
     this.password = password;
     this.bearerToken = null;
+    this.refreshToken = null;
+    this.deviceId = null;
   }
 
   public boolean isAuthenticated() {
@@ -23,10 +31,14 @@ public class MatrixAuthentication {
     return bearerToken != null;
   }
 
-  public void clear() {
+  /**
+   * Forgets the access and refresh token after the server rejected them. The device id is kept, so
+   * logging in again continues to use the same device.
+   */
+  public void invalidateTokens() {
 
     bearerToken = null;
-    userId = null;
+    refreshToken = null;
   }
 
   public String getUsername() {
@@ -44,6 +56,16 @@ public class MatrixAuthentication {
     return Optional.ofNullable(bearerToken);
   }
 
+  public Optional<String> getRefreshToken() {
+
+    return Optional.ofNullable(refreshToken);
+  }
+
+  public Optional<String> getDeviceId() {
+
+    return Optional.ofNullable(deviceId);
+  }
+
   public Optional<MatrixUserId> getUserId() {
 
     return Optional.ofNullable(userId);
@@ -58,4 +80,14 @@ public class MatrixAuthentication {
 
     this.bearerToken = bearerToken;
   }
+
+  public void setRefreshToken(String refreshToken) {
+
+    this.refreshToken = refreshToken;
+  }
+
+  public void setDeviceId(String deviceId) {
+
+    this.deviceId = deviceId;
+  }
 }
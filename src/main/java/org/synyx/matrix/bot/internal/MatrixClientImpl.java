@@ -7,19 +7,30 @@ import com.fasterxml.jackson.databind.json.JsonMapper;
 import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.synyx.matrix.bot.MatrixClient;
 import org.synyx.matrix.bot.MatrixCommunicationException;
 import org.synyx.matrix.bot.MatrixEventConsumer;
+import org.synyx.matrix.bot.MatrixMetricsListener;
 import org.synyx.matrix.bot.MatrixPersistedStateProvider;
 import org.synyx.matrix.bot.MatrixState;
+import org.synyx.matrix.bot.MatrixSyncFilter;
+import org.synyx.matrix.bot.MatrixSyncLease;
 import org.synyx.matrix.bot.domain.MatrixEventId;
 import org.synyx.matrix.bot.domain.MatrixRoomId;
 import org.synyx.matrix.bot.domain.MatrixUserId;
 import org.synyx.matrix.bot.internal.api.MatrixApi;
 import org.synyx.matrix.bot.internal.api.MatrixApiException;
+import org.synyx.matrix.bot.internal.api.MatrixHttpTransport;
+import org.synyx.matrix.bot.internal.api.dto.FilterDto;
 import org.synyx.matrix.bot.internal.api.dto.MessageDto;
 import org.synyx.matrix.bot.internal.api.dto.ReactionDto;
 import org.synyx.matrix.bot.internal.api.dto.ReactionRelatesToDto;
@@ -31,39 +42,155 @@ public class MatrixClientImpl implements MatrixClient {
 
   private static final long DEFAULT_BACKOFF_IN_SEC = 3;
   private static final long BACKOFF_MAX_IN_SEC = 60;
+  private static final long STANDBY_INTERVAL_IN_MS = 1000;
 
   private final MatrixAuthentication authentication;
   private final ObjectMapper objectMapper;
   private final MatrixApi api;
+  private final MatrixOutboundQueue outboundQueue;
+  private final MatrixStateSnapshotter stateSnapshotter;
+  private final MatrixSessionSnapshotter sessionSnapshotter;
   private MatrixState state;
   private MatrixStateSynchronizer stateSynchronizer;
+  private String lastBatch;
   private MatrixPersistedStateProvider persistedState;
+  private MatrixSyncLease syncLease;
+  private boolean syncLeaseHeld;
+  private MatrixState standbyState;
+  private String standbyBatch;
+  private MatrixEventConsumer eventConsumer;
+  private int eventDispatchConcurrency;
+  private MatrixEventDispatcher eventDispatcher;
+  private final MatrixEventDeduplicator eventDeduplicator;
+  private final MatrixMemberLoader memberLoader;
+  private final MatrixStatePublisher statePublisher;
+  private final ReentrantLock persistLock;
+  private int persistGeneration;
+  private MatrixState persistedStateSnapshotSource;
+  private CompletableFuture<Void> pendingPersists;
   private MatrixEventNotifier eventNotifier;
-  private boolean interruptionRequested;
+  private MatrixMetricsListener metricsListener;
+  private boolean streamingSync;
+  private boolean pipelinedSync;
+  private MatrixSyncFilter syncFilter;
+  private FilterDto uploadedSyncFilter;
+  private String syncFilterId;
+  private volatile boolean syncing;
+  private volatile boolean interruptionRequested;
   private long currentBackoffInSec;
+  private boolean accessTokenRenewed;
 
-  public MatrixClientImpl(String url, String username, String password) {
+  public MatrixClientImpl(
+      String url,
+      String username,
+      String password,
+      MatrixHttpTransport transport,
+      ObjectMapper objectMapper) {
 
     this.authentication = new MatrixAuthentication(username, password);
-    this.objectMapper =
-        JsonMapper.builder()
-            .addModule(new Jdk8Module())
-            .addModule(new JavaTimeModule())
-            .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false)
-            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
-            .configure(DeserializationFeature.READ_UNKNOWN_ENUM_VALUES_USING_DEFAULT_VALUE, true)
-            .build();
-    this.api = new MatrixApi(url, authentication, objectMapper);
+    this.objectMapper = objectMapper;
+    this.api = new MatrixApi(url, authentication, objectMapper, transport);
+    this.api.setTokenRefreshListener(this::onAccessTokenRefreshed);
+    this.outboundQueue = new MatrixOutboundQueue(api);
+    this.stateSnapshotter = new MatrixStateSnapshotter(objectMapper);
+    this.sessionSnapshotter = new MatrixSessionSnapshotter(objectMapper);
     this.state = null;
+    this.lastBatch = null;
+    this.syncLease = null;
+    this.syncLeaseHeld = false;
+    this.standbyState = null;
+    this.standbyBatch = null;
+    this.eventConsumer = null;
+    this.eventDispatchConcurrency = 0;
+    this.eventDispatcher = MatrixEventDispatcher.direct();
+    this.eventDeduplicator =
+        new MatrixEventDeduplicator(MatrixEventDeduplicator.DEFAULT_CAPACITY);
     this.eventNotifier = null;
+    this.memberLoader = new MatrixMemberLoader(api, MatrixMemberLoader.DEFAULT_CAPACITY);
+    this.statePublisher = new MatrixStatePublisher();
+    this.persistLock = new ReentrantLock();
+    this.persistGeneration = 0;
+    this.persistedStateSnapshotSource = null;
+    this.pendingPersists = CompletableFuture.completedFuture(null);
+    this.metricsListener = MatrixMetricsListener.NONE;
+    this.streamingSync = false;
+    this.pipelinedSync = false;
+    this.syncFilter = null;
+    this.uploadedSyncFilter = null;
+    this.syncFilterId = null;
+    this.syncing = false;
     this.interruptionRequested = false;
     this.currentBackoffInSec = DEFAULT_BACKOFF_IN_SEC;
+    this.accessTokenRenewed = false;
+  }
+
+  public static ObjectMapper createObjectMapper() {
+
+    return JsonMapper.builder()
+        .addModule(new Jdk8Module())
+        .addModule(new JavaTimeModule())
+        .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false)
+        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+        .configure(DeserializationFeature.READ_UNKNOWN_ENUM_VALUES_USING_DEFAULT_VALUE, true)
+        .build();
   }
 
   @Override
   public void setEventCallback(MatrixEventConsumer eventConsumer) {
 
-    this.eventNotifier = MatrixEventNotifier.from(objectMapper, eventConsumer).orElse(null);
+    this.eventConsumer = eventConsumer;
+    updateEventNotifier();
+  }
+
+  @Override
+  public void setEventDispatchConcurrency(int maxConcurrentCallbacks) {
+
+    if (maxConcurrentCallbacks < 0) {
+      throw new IllegalArgumentException("Concurrency must not be negative");
+    }
+
+    if (syncing) {
+      throw new IllegalStateException("Cannot change the dispatch concurrency while syncing");
+    }
+
+    this.eventDispatchConcurrency = maxConcurrentCallbacks;
+  }
+
+  @Override
+  public void setMetricsListener(MatrixMetricsListener metricsListener) {
+
+    this.metricsListener =
+        metricsListener != null ? metricsListener : MatrixMetricsListener.NONE;
+    api.setMetricsListener(this.metricsListener);
+    updateEventNotifier();
+  }
+
+  private void updateEventNotifier() {
+
+    this.eventNotifier =
+        MatrixEventNotifier.from(
+                eventConsumer, eventDispatcher, eventDeduplicator, metricsListener)
+            .orElse(null);
+  }
+
+  @Override
+  public void setMemberCacheCapacity(int capacity) {
+
+    if (capacity < 0) {
+      throw new IllegalArgumentException("Capacity must not be negative");
+    }
+
+    memberLoader.setCapacity(capacity);
+  }
+
+  @Override
+  public void setEventDeduplicationCapacity(int capacity) {
+
+    if (capacity < 0) {
+      throw new IllegalArgumentException("Capacity must not be negative");
+    }
+
+    eventDeduplicator.setCapacity(capacity);
   }
 
   @Override
@@ -73,94 +200,635 @@ public class MatrixClientImpl implements MatrixClient {
   }
 
   @Override
-  public void syncContinuous() throws InterruptedException {
+  public void setStreamingSync(boolean streamingSync) {
 
-    while (!interruptionRequested) {
-      try {
-        if (!authentication.isAuthenticated()) {
-          try {
-            api.login();
-          } catch (IOException e) {
-            throw new MatrixBackoffException("Failed to login to matrix server!", e);
-          } catch (MatrixApiException e) {
-            throw new MatrixCommunicationException("Failed to login to matrix server!", e);
-          }
+    this.streamingSync = streamingSync;
+  }
 
-          LOG.info(
-              "Successfully logged in to matrix server as {}",
-              authentication.getUserId().map(MatrixUserId::toString).orElse("UNKNOWN"));
-        }
+  @Override
+  public void setPipelinedSync(boolean pipelinedSync) {
 
-        state = new MatrixState(authentication.getUserId().orElseThrow(IllegalStateException::new));
-        stateSynchronizer = new MatrixStateSynchronizer(state, objectMapper);
+    this.pipelinedSync = pipelinedSync;
+  }
 
-        SyncResponseDto syncResponse;
-        try {
-          syncResponse =
-              api.syncFull()
-                  .orElseThrow(() -> new MatrixCommunicationException("No data in initial sync"));
-        } catch (MatrixApiException | IOException e) {
-          throw new MatrixBackoffException("Failed to perform initial sync", e);
-        }
+  @Override
+  public void setSyncFilter(MatrixSyncFilter syncFilter) {
 
-        String lastBatch = syncResponse.nextBatch();
-        stateSynchronizer.synchronizeState(syncResponse);
+    this.syncFilter = syncFilter;
+  }
 
-        if (eventNotifier != null) {
-          eventNotifier.getConsumer().onConnected(state);
-        }
+  @Override
+  public void syncContinuous() throws InterruptedException {
 
-        if (persistedState != null) {
-          final var maybePersistedLastBatch = persistedState.getLastBatch();
-          if (maybePersistedLastBatch.isPresent()) {
-            lastBatch = maybePersistedLastBatch.get();
-          } else {
-            persistedState.setLastBatch(lastBatch);
-          }
-        }
+    syncing = true;
+    syncLease =
+        Optional.ofNullable(persistedState)
+            .flatMap(MatrixPersistedStateProvider::getSyncLease)
+            .orElse(null);
+    startEventDispatcher();
+    try {
+      syncWhileHoldingLease();
+    } finally {
+      try {
+        stopEventDispatcher();
+      } finally {
+        releaseSyncLease();
+        syncing = false;
+      }
+    }
 
-        while (!interruptionRequested) {
-          Optional<SyncResponseDto> maybePartialSyncResponse;
+    clearSyncState();
+    interruptionRequested = false;
+    resetBackoff();
+  }
 
-          try {
-            maybePartialSyncResponse = api.sync(lastBatch);
-          } catch (MatrixApiException | IOException e) {
-            throw new MatrixBackoffException("Could not partial sync", e);
-          }
+  private void syncWhileHoldingLease() throws InterruptedException {
 
-          if (maybePartialSyncResponse.isPresent()) {
-            syncResponse = maybePartialSyncResponse.get();
-            lastBatch = syncResponse.nextBatch();
+    while (!interruptionRequested) {
+      try {
+        if (!acquireSyncLease()) {
+          break;
+        }
 
-            stateSynchronizer.synchronizeState(syncResponse);
+        if (!authentication.isAuthenticated()) {
+          login();
+        }
 
-            if (eventNotifier != null) {
-              eventNotifier.notifyFromSynchronizationResponse(state, syncResponse);
-            }
+        if (lastBatch == null) {
+          connect();
+        } else {
+          LOG.info("Resuming sync from batch {}", lastBatch);
+        }
 
-            if (persistedState != null) {
-              persistedState.setLastBatch(lastBatch);
-            }
-          }
+        if (pipelinedSync) {
+          syncPipelined();
+        } else {
+          syncSequentially();
+        }
+      } catch (MatrixBackoffException e) {
+        if (interruptionRequested) {
+          // The failure was caused by aborting the open requests
+          break;
+        }
 
-          currentBackoffInSec = DEFAULT_BACKOFF_IN_SEC;
+        if (e.getCause() instanceof MatrixApiException apiException
+            && apiException.isUnknownToken()
+            && !accessTokenRenewed) {
+          // Expired access tokens are refreshed by the api, so the session itself has been lost
+          replaceRejectedSession();
+          clearSyncState();
+          continue;
+        }
+
+        // Transient failures resume from the last batch with the current state
+        if (lastBatch == null || !isTransientFailure(e.getCause())) {
+          clearSyncState();
         }
 
-      } catch (MatrixBackoffException e) {
         LOG.warn(
             "Sync failed: {}, backing off for {}s",
             e.getCause().getClass().getName(),
             currentBackoffInSec);
 
-        clearSyncState();
+        metricsListener.onBackoff(Duration.ofSeconds(currentBackoffInSec));
         Thread.sleep(currentBackoffInSec * 1000);
         currentBackoffInSec = Math.min(currentBackoffInSec * 2, BACKOFF_MAX_IN_SEC);
       }
     }
+  }
+
+  private void startEventDispatcher() {
+
+    this.eventDispatcher =
+        eventDispatchConcurrency == 0
+            ? MatrixEventDispatcher.direct()
+            : MatrixEventDispatcher.concurrent(eventDispatchConcurrency);
+    updateEventNotifier();
+  }
+
+  /**
+   * Waits for the callbacks that are still pending and the batches waiting for them to be persisted
+   * before shutting down the dispatcher.
+   */
+  private void stopEventDispatcher() throws InterruptedException {
+
+    final var dispatcher = eventDispatcher;
+    this.eventDispatcher = MatrixEventDispatcher.direct();
+    updateEventNotifier();
+
+    try {
+      dispatcher.awaitDispatched();
+      pendingPersists.get();
+    } catch (ExecutionException e) {
+      // Failures to persist a batch are logged by the persisting task
+      throw new IllegalStateException(e);
+    } finally {
+      dispatcher.shutdown();
+    }
+  }
+
+  /**
+   * Makes sure this replica holds the sync lease, standing by as long as another replica holds it.
+   *
+   * @return {@code false} if stopping was requested while standing by, {@code true} otherwise.
+   */
+  private boolean acquireSyncLease() throws InterruptedException {
+
+    if (syncLeaseHeld) {
+      return true;
+    }
+
+    if (syncLease != null && !syncLease.tryAcquire()) {
+      standBy();
+      if (interruptionRequested) {
+        return false;
+      }
+    }
+
+    syncLeaseHeld = true;
+    restorePersistedSession();
+
+    return true;
+  }
+
+  private void standBy() throws InterruptedException {
+
+    LOG.info("Sync lease is held by another replica, standing by");
+
+    while (!interruptionRequested) {
+      refreshStandbyState();
+      Thread.sleep(STANDBY_INTERVAL_IN_MS);
+
+      if (syncLease.tryAcquire()) {
+        LOG.info("Acquired sync lease, taking over");
+        return;
+      }
+    }
+  }
+
+  /** Keeps a state restored from the latest snapshot of the replica holding the sync lease. */
+  private void refreshStandbyState() {
+
+    restoreSession();
+    final var maybeOwnUserId = authentication.getUserId();
+    final var maybeLastBatch = persistedState.getLastBatch();
+    if (maybeOwnUserId.isEmpty()
+        || maybeLastBatch.isEmpty()
+        || maybeLastBatch.get().equals(standbyBatch)) {
+      return;
+    }
+
+    persistedState
+        .getStateSnapshot()
+        .flatMap(snapshot -> stateSnapshotter.restoreSnapshot(snapshot, maybeOwnUserId.get()))
+        .ifPresent(
+            restoredState -> {
+              standbyState = restoredState;
+              standbyBatch = maybeLastBatch.get();
+            });
+  }
+
+  /**
+   * Renews the sync lease before a batch is persisted. If another replica took it over in the
+   * meantime, the state is dropped and the client stands by again.
+   *
+   * @return {@code true} if this replica still holds the lease, {@code false} otherwise.
+   */
+  private boolean renewSyncLease() {
 
+    if (syncLease == null || syncLease.tryAcquire()) {
+      return true;
+    }
+
+    LOG.warn("Lost sync lease to another replica");
+    syncLeaseHeld = false;
     clearSyncState();
-    interruptionRequested = false;
+
+    return false;
+  }
+
+  private void releaseSyncLease() {
+
+    if (syncLease != null && syncLeaseHeld) {
+      syncLease.release();
+    }
+
+    syncLeaseHeld = false;
+    standbyState = null;
+    standbyBatch = null;
+  }
+
+  private void restorePersistedSession() {
+
+    if (persistedState == null) {
+      return;
+    }
+
+    eventDeduplicator.restoreSeenEventIds(persistedState.getRecentEventIds());
+    if (syncLease != null) {
+      // The replica that held the lease before may have refreshed the access token
+      authentication.invalidateTokens();
+    }
+    restoreSession();
+  }
+
+  private void connect() throws InterruptedException {
+
+    final var ownUserId = authentication.getUserId().orElseThrow(IllegalStateException::new);
+    final var maybeRestored = restoreFromSnapshot(ownUserId);
+
+    String initialBatch;
+    if (maybeRestored.isPresent()) {
+      state = maybeRestored.get();
+      stateSynchronizer = new MatrixStateSynchronizer(state);
+      prepareMemberLoading();
+      initialBatch = persistedState.getLastBatch().orElseThrow(IllegalStateException::new);
+
+      try {
+        prepareSyncFilter();
+      } catch (IOException e) {
+        throw new MatrixBackoffException("Failed to prepare sync filter", e);
+      }
+
+      LOG.info("Restored state snapshot, skipping initial sync");
+    } else {
+      state = new MatrixState(ownUserId);
+      stateSynchronizer = new MatrixStateSynchronizer(state);
+      prepareMemberLoading();
+
+      try {
+        prepareSyncFilter();
+        initialBatch = syncFull();
+      } catch (MatrixApiException | IOException e) {
+        throw new MatrixBackoffException("Failed to perform initial sync", e);
+      }
+
+      if (persistedState != null) {
+        persistedState.setStateSnapshot(stateSnapshotter.createSnapshot(state));
+
+        final var maybePersistedLastBatch = persistedState.getLastBatch();
+        if (maybePersistedLastBatch.isPresent()) {
+          initialBatch = maybePersistedLastBatch.get();
+        } else {
+          persistedState.setLastBatch(initialBatch);
+        }
+      }
+    }
+
+    publishState();
+    if (persistedState != null) {
+      // Just stored or restored, so it only has to be persisted again once it changes
+      markStateSnapshotPersisted(statePublisher.getPublishedState().orElse(null));
+    }
+
+    if (eventNotifier != null) {
+      eventNotifier.getConsumer().onConnected(state);
+    }
+
+    lastBatch = initialBatch;
+  }
+
+  private void login() throws InterruptedException {
+
+    try {
+      api.login();
+    } catch (IOException e) {
+      throw new MatrixBackoffException("Failed to login to matrix server!", e);
+    } catch (MatrixApiException e) {
+      if (e.isRateLimited()) {
+        throw new MatrixBackoffException("Failed to login to matrix server!", e);
+      }
+      throw new MatrixCommunicationException("Failed to login to matrix server!", e);
+    }
+
+    LOG.info(
+        "Successfully logged in to matrix server as {} on device {}",
+        authentication.getUserId().map(MatrixUserId::toString).orElse("UNKNOWN"),
+        authentication.getDeviceId().orElse("UNKNOWN"));
+    persistSession();
+  }
+
+  private void onAccessTokenRefreshed() {
+
+    LOG.info("Refreshed access token");
+    persistSession();
+  }
+
+  private void replaceRejectedSession() {
+
+    accessTokenRenewed = true;
+    LOG.info("Access token was rejected and could not be refreshed, logging in again");
+    authentication.invalidateTokens();
+  }
+
+  private void restoreSession() {
+
+    if (authentication.isAuthenticated()) {
+      return;
+    }
+
+    persistedState
+        .getSession()
+        .filter(session -> sessionSnapshotter.restoreSnapshot(session, authentication))
+        .ifPresent(
+            session ->
+                LOG.info(
+                    "Restored session of {} on device {}",
+                    authentication.getUserId().map(MatrixUserId::toString).orElse("UNKNOWN"),
+                    authentication.getDeviceId().orElse("UNKNOWN")));
+  }
+
+  private void persistSession() {
+
+    if (persistedState != null) {
+      persistedState.setSession(sessionSnapshotter.createSnapshot(authentication));
+    }
+  }
+
+  private void resetBackoff() {
+
     currentBackoffInSec = DEFAULT_BACKOFF_IN_SEC;
+    accessTokenRenewed = false;
+  }
+
+  private void syncSequentially() throws InterruptedException {
+
+    while (!interruptionRequested) {
+      Optional<String> maybeNextBatch;
+
+      try {
+        maybeNextBatch = sync(lastBatch);
+      } catch (MatrixApiException | IOException e) {
+        throw new MatrixBackoffException("Could not partial sync", e);
+      }
+
+      if (!renewSyncLease()) {
+        return;
+      }
+
+      if (maybeNextBatch.isPresent()) {
+        lastBatch = maybeNextBatch.get();
+        persistBatch(lastBatch);
+      }
+
+      resetBackoff();
+    }
+  }
+
+  private void syncPipelined() throws InterruptedException {
+
+    var pendingSync = api.syncAsync(lastBatch, syncFilterId);
+    try {
+      while (!interruptionRequested) {
+        Optional<SyncResponseDto> maybeSyncResponse;
+
+        try {
+          maybeSyncResponse = pendingSync.get();
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof MatrixApiException || e.getCause() instanceof IOException) {
+            throw new MatrixBackoffException("Could not partial sync", e.getCause());
+          }
+
+          throw new MatrixCommunicationException("Could not partial sync", e.getCause());
+        }
+
+        final var maybeNextBatch =
+            maybeSyncResponse.flatMap(
+                syncResponse -> Optional.ofNullable(syncResponse.nextBatch()));
+        if (maybeNextBatch.isPresent()) {
+          lastBatch = maybeNextBatch.get();
+        }
+
+        // Request the next batch right away, it is only applied after this one has been processed
+        pendingSync = api.syncAsync(lastBatch, syncFilterId);
+
+        if (maybeSyncResponse.isPresent()) {
+          processSyncResponse(maybeSyncResponse.get());
+        }
+
+        if (!renewSyncLease()) {
+          return;
+        }
+
+        if (maybeNextBatch.isPresent()) {
+          persistBatch(lastBatch);
+        }
+
+        resetBackoff();
+      }
+    } finally {
+      pendingSync.cancel(true);
+    }
+  }
+
+  /**
+   * Persists a synced batch once the callbacks dispatched for it and for all earlier batches have
+   * completed, so its events are not lost if the process stops before they were consumed. Syncing
+   * continues in the meantime. Batches are persisted in the order they were synced, on the thread
+   * completing the last of their callbacks, or right away if there are none left.
+   */
+  private void persistBatch(String batch) {
+
+    if (persistedState == null) {
+      return;
+    }
+
+    // The published snapshot of the state as of this batch is never changed, unlike the state
+    final var batchState =
+        statePublisher.getPublishedState().orElseThrow(IllegalStateException::new);
+    final var recentEventIds =
+        eventDeduplicator.isChanged() ? eventDeduplicator.getSeenEventIds() : null;
+    eventDeduplicator.resetChanged();
+
+    final var generation = persistGeneration;
+    pendingPersists =
+        CompletableFuture.allOf(pendingPersists, eventDispatcher.whenDispatched())
+            .thenRun(() -> persistBatch(generation, batch, batchState, recentEventIds));
+  }
+
+  private void persistBatch(
+      int generation, String batch, MatrixState batchState, List<String> recentEventIds) {
+
+    persistLock.lock();
+    try {
+      if (generation != persistGeneration) {
+        // The sync state has been cleared since, e.g. because the sync lease has been lost
+        return;
+      }
+
+      if (batchState != persistedStateSnapshotSource) {
+        persistedState.setStateSnapshot(stateSnapshotter.createSnapshot(batchState));
+        persistedStateSnapshotSource = batchState;
+      }
+
+      if (recentEventIds != null) {
+        persistedState.setRecentEventIds(recentEventIds);
+      }
+
+      persistedState.setLastBatch(batch);
+    } catch (RuntimeException e) {
+      LOG.error("Failed to persist batch {}", batch, e);
+    } finally {
+      persistLock.unlock();
+    }
+  }
+
+  private void markStateSnapshotPersisted(MatrixState persistedStateSource) {
+
+    persistLock.lock();
+    try {
+      persistedStateSnapshotSource = persistedStateSource;
+    } finally {
+      persistLock.unlock();
+    }
+  }
+
+  private Optional<MatrixState> restoreFromSnapshot(MatrixUserId ownUserId) {
+
+    if (persistedState == null || persistedState.getLastBatch().isEmpty()) {
+      return Optional.empty();
+    }
+
+    final var maybeStandbyState =
+        Optional.ofNullable(standbyState)
+            .filter(ignored -> persistedState.getLastBatch().get().equals(standbyBatch))
+            .filter(restoredState -> restoredState.getOwnUserId().equals(ownUserId));
+    standbyState = null;
+    standbyBatch = null;
+    if (maybeStandbyState.isPresent()) {
+      LOG.info("Taking over with the state kept while standing by");
+      return maybeStandbyState;
+    }
+
+    return persistedState
+        .getStateSnapshot()
+        .flatMap(snapshot -> stateSnapshotter.restoreSnapshot(snapshot, ownUserId));
+  }
+
+  private void prepareMemberLoading() {
+
+    // Members cached for a previous state may have changed in the meantime
+    memberLoader.invalidateAll();
+    if (syncFilter != null && syncFilter.isMembersLazyLoaded()) {
+      stateSynchronizer.setMemberLoader(memberLoader);
+    }
+  }
+
+  private void prepareSyncFilter() throws IOException, InterruptedException {
+
+    if (syncFilter == null) {
+      uploadedSyncFilter = null;
+      syncFilterId = null;
+      return;
+    }
+
+    final var filter =
+        MatrixSyncFilterGenerator.generate(
+            syncFilter, eventNotifier != null ? eventNotifier.getInterests() : null);
+    if (syncFilterId != null && filter.equals(uploadedSyncFilter)) {
+      return;
+    }
+
+    try {
+      syncFilterId = api.uploadFilter(filter);
+      uploadedSyncFilter = filter;
+    } catch (MatrixApiException e) {
+      LOG.warn("Could not upload sync filter, syncing without filter", e);
+      uploadedSyncFilter = null;
+      syncFilterId = null;
+    }
+  }
+
+  private String syncFull() throws IOException, InterruptedException, MatrixApiException {
+
+    if (streamingSync) {
+      final var nextBatch =
+          api.syncFullStreaming(
+                  syncFilterId, new MatrixSyncResponseHandler(stateSynchronizer, null, state))
+              .orElseThrow(() -> new MatrixCommunicationException("No data in initial sync"));
+      reportProcessedBatch();
+
+      return nextBatch;
+    }
+
+    final var syncResponse =
+        api.syncFull(syncFilterId)
+            .orElseThrow(() -> new MatrixCommunicationException("No data in initial sync"));
+    stateSynchronizer.synchronizeState(syncResponse);
+    reportProcessedBatch();
+
+    return syncResponse.nextBatch();
+  }
+
+  private Optional<String> sync(String since)
+      throws IOException, InterruptedException, MatrixApiException {
+
+    if (streamingSync) {
+      final var notifier = eventNotifier;
+      final var maybeNextBatch =
+          api.syncStreaming(
+              since,
+              syncFilterId,
+              new MatrixSyncResponseHandler(stateSynchronizer, notifier, state));
+      reportProcessedBatch();
+      publishState();
+
+      if (notifier != null) {
+        notifier.notifyCollected(getNotifiedState(notifier));
+      }
+
+      return maybeNextBatch;
+    }
+
+    final var maybeSyncResponse = api.sync(since, syncFilterId);
+    if (maybeSyncResponse.isEmpty()) {
+      return Optional.empty();
+    }
+
+    final var syncResponse = maybeSyncResponse.get();
+    processSyncResponse(syncResponse);
+
+    return Optional.ofNullable(syncResponse.nextBatch());
+  }
+
+  private void processSyncResponse(SyncResponseDto syncResponse) throws InterruptedException {
+
+    final var notifier = eventNotifier;
+    stateSynchronizer.synchronizeState(syncResponse, notifier);
+    reportProcessedBatch();
+    publishState();
+
+    if (notifier != null) {
+      notifier.notifyCollected(getNotifiedState(notifier));
+    }
+  }
+
+  /**
+   * Returns the state passed to event consumer callbacks. Callbacks running concurrently to the
+   * syncing thread get a read-only snapshot including all changes applied so far instead of the
+   * state that keeps being changed.
+   */
+  private MatrixState getNotifiedState(MatrixEventNotifier notifier) {
+
+    if (!notifier.isDispatchedConcurrently()) {
+      return state;
+    }
+
+    publishState();
+    return statePublisher.getPublishedState().orElseThrow(IllegalStateException::new);
+  }
+
+  private void publishState() {
+
+    statePublisher.publish(state, stateSynchronizer.getChangedRoomIds());
+    stateSynchronizer.resetChangedRoomIds();
+  }
+
+  private void reportProcessedBatch() {
+
+    metricsListener.onSyncBatchProcessed(
+        stateSynchronizer.getProcessedEventCount(), stateSynchronizer.getSynchronizationNanos());
+    stateSynchronizer.resetStatistics();
   }
 
   @Override
@@ -170,38 +838,62 @@ public class MatrixClientImpl implements MatrixClient {
     api.terminateOpenConnections();
   }
 
+  private static boolean isTransientFailure(Throwable cause) {
+
+    if (cause instanceof MatrixApiException apiException) {
+      return apiException.getStatusCode() < 0
+          || apiException.getStatusCode() >= 500
+          || apiException.isRateLimited();
+    }
+
+    return cause instanceof IOException;
+  }
+
   private void clearSyncState() {
 
-    authentication.clear();
     state = null;
+    lastBatch = null;
+    statePublisher.clear();
+
+    // Batches still waiting for their callbacks must not overwrite what is persisted from now on
+    persistLock.lock();
+    try {
+      persistGeneration++;
+      persistedStateSnapshotSource = null;
+    } finally {
+      persistLock.unlock();
+    }
   }
 
   @Override
   public boolean isConnected() {
 
-    return state != null;
+    return statePublisher.getPublishedState().isPresent();
   }
 
   @Override
   public Optional<MatrixState> getState() {
 
-    return Optional.ofNullable(state);
+    return statePublisher.getPublishedState();
   }
 
   @Override
   public Optional<MatrixEventId> sendMessage(MatrixRoomId roomId, String messageBody) {
 
-    try {
-      return MatrixEventId.from(
-          api.sendEvent(
-              roomId.getFormatted(), "m.room.message", new MessageDto(messageBody, "m.text")));
-    } catch (InterruptedException | IOException e) {
-      LOG.error("Failed to send message", e);
-    } catch (MatrixApiException e) {
-      LOG.warn("Could not send message", e);
-    }
+    return awaitEventId(
+        outboundQueue.sendEvent(roomId, "m.room.message", new MessageDto(messageBody, "m.text")),
+        "send message");
+  }
 
-    return Optional.empty();
+  @Override
+  public CompletableFuture<MatrixEventId> sendMessageAsync(
+      MatrixRoomId roomId, String messageBody) {
+
+    return failWithCommunicationException(
+        outboundQueue
+            .sendEvent(roomId, "m.room.message", new MessageDto(messageBody, "m.text"))
+            .thenApply(MatrixClientImpl::toEventId),
+        "Failed to send message");
   }
 
   @Override
@@ -210,15 +902,22 @@ public class MatrixClientImpl implements MatrixClient {
 
     final var reactionDto =
         new ReactionDto(new ReactionRelatesToDto(eventId.getFormatted(), reaction));
-    try {
-      return MatrixEventId.from(api.sendEvent(roomId.getFormatted(), "m.reaction", reactionDto));
-    } catch (InterruptedException | IOException e) {
-      LOG.error("Failed to add reaction", e);
-    } catch (MatrixApiException e) {
-      LOG.warn("Could not add reaction", e);
-    }
 
-    return Optional.empty();
+    return awaitEventId(outboundQueue.sendEvent(roomId, "m.reaction", reactionDto), "add reaction");
+  }
+
+  @Override
+  public CompletableFuture<MatrixEventId> addReactionAsync(
+      MatrixRoomId roomId, MatrixEventId eventId, String reaction) {
+
+    final var reactionDto =
+        new ReactionDto(new ReactionRelatesToDto(eventId.getFormatted(), reaction));
+
+    return failWithCommunicationException(
+        outboundQueue
+            .sendEvent(roomId, "m.reaction", reactionDto)
+            .thenApply(MatrixClientImpl::toEventId),
+        "Failed to add reaction");
   }
 
   @Override
@@ -236,6 +935,13 @@ public class MatrixClientImpl implements MatrixClient {
     return false;
   }
 
+  @Override
+  public CompletableFuture<Void> joinRoomAsync(MatrixRoomId roomId) {
+
+    return failWithCommunicationException(
+        api.joinRoomAsync(roomId.getFormatted(), "i'm a bot"), "Failed to join room");
+  }
+
   @Override
   public boolean leaveRoom(MatrixRoomId roomId) {
 
@@ -250,4 +956,52 @@ public class MatrixClientImpl implements MatrixClient {
 
     return false;
   }
+
+  @Override
+  public CompletableFuture<Void> leaveRoomAsync(MatrixRoomId roomId) {
+
+    return failWithCommunicationException(
+        api.leaveRoomAsync(roomId.getFormatted(), "i'm a bot"), "Failed to leave room");
+  }
+
+  private static Optional<MatrixEventId> awaitEventId(
+      CompletableFuture<String> sentEvent, String action) {
+
+    try {
+      return MatrixEventId.from(sentEvent.get());
+    } catch (InterruptedException e) {
+      LOG.error("Failed to {}", action, e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof MatrixApiException) {
+        LOG.warn("Could not {}", action, e.getCause());
+      } else {
+        LOG.error("Failed to {}", action, e.getCause());
+      }
+    }
+
+    return Optional.empty();
+  }
+
+  private static MatrixEventId toEventId(String eventId) {
+
+    return MatrixEventId.from(eventId)
+        .orElseThrow(
+            () ->
+                new MatrixCommunicationException(
+                    "Received invalid event id %s".formatted(eventId)));
+  }
+
+  private static <T> CompletableFuture<T> failWithCommunicationException(
+      CompletableFuture<T> future, String message) {
+
+    return future.exceptionally(
+        e -> {
+          final var cause = e instanceof CompletionException ? e.getCause() : e;
+          if (cause instanceof MatrixCommunicationException communicationException) {
+            throw communicationException;
+          }
+
+          throw new MatrixCommunicationException(message, cause);
+        });
+  }
 }
@@ -0,0 +1,93 @@
+package org.synyx.matrix.bot.internal;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Remembers the ids of the most recently notified events, so that events received again after a
+ * reconnect are not notified twice. Only a bounded number of ids is kept, the oldest ones are
+ * forgotten first.
+ */
+public class MatrixEventDeduplicator {
+
+  public static final int DEFAULT_CAPACITY = 1024;
+
+  private final LinkedHashSet<String> seenEventIds;
+  private int capacity;
+  private boolean changed;
+
+  public MatrixEventDeduplicator(int capacity) {
+
+    this.seenEventIds = new LinkedHashSet<>();
+    this.capacity = capacity;
+    this.changed = false;
+  }
+
+  /**
+   * Records an event id as seen.
+   *
+   * @return {@code true} if the event id has not been seen before, {@code false} otherwise.
+   */
+  public synchronized boolean markSeen(String eventId) {
+
+    if (eventId == null || capacity == 0) {
+      return true;
+    }
+
+    if (!seenEventIds.add(eventId)) {
+      return false;
+    }
+
+    trimToCapacity();
+    changed = true;
+
+    return true;
+  }
+
+  /**
+   * Returns whether an event id has been recorded as seen, without recording it.
+   *
+   * @return {@code true} if the event id has been seen before, {@code false} otherwise.
+   */
+  public synchronized boolean isSeen(String eventId) {
+
+    return eventId != null && seenEventIds.contains(eventId);
+  }
+
+  public synchronized void setCapacity(int capacity) {
+
+    this.capacity = capacity;
+    trimToCapacity();
+  }
+
+  public synchronized List<String> getSeenEventIds() {
+
+    return new ArrayList<>(seenEventIds);
+  }
+
+  public synchronized void restoreSeenEventIds(List<String> eventIds) {
+
+    seenEventIds.addAll(eventIds);
+    trimToCapacity();
+  }
+
+  public synchronized boolean isChanged() {
+
+    return changed;
+  }
+
+  public synchronized void resetChanged() {
+
+    changed = false;
+  }
+
+  private void trimToCapacity() {
+
+    final var iterator = seenEventIds.iterator();
+    while (seenEventIds.size() > capacity && iterator.hasNext()) {
+      iterator.next();
+      iterator.remove();
+    }
+  }
+}
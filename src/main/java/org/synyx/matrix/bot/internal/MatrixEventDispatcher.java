@@ -0,0 +1,154 @@
+package org.synyx.matrix.bot.internal;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.synyx.matrix.bot.domain.MatrixRoomId;
+
+/**
+ * Runs event consumer callbacks. By default, callbacks are run directly on the calling thread. In
+ * concurrent mode, callbacks are run on virtual threads: callbacks for the same room are run one
+ * after another in the order they were dispatched, callbacks for different rooms run concurrently
+ * up to a configurable limit. The number of callbacks waiting to be run is bounded as well, so a
+ * dispatching thread outpacing the callbacks is held back.
+ */
+public class MatrixEventDispatcher {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MatrixEventDispatcher.class);
+
+  private static final int MAX_QUEUED_CALLBACKS = 1024;
+
+  private final ExecutorService executor;
+  private final Semaphore permits;
+  private final Semaphore queueSlots;
+  private final Map<MatrixRoomId, CompletableFuture<Void>> roomQueueTails;
+
+  private MatrixEventDispatcher(ExecutorService executor, Semaphore permits, Semaphore queueSlots) {
+
+    this.executor = executor;
+    this.permits = permits;
+    this.queueSlots = queueSlots;
+    this.roomQueueTails = new HashMap<>();
+  }
+
+  public static MatrixEventDispatcher direct() {
+
+    return new MatrixEventDispatcher(null, null, null);
+  }
+
+  public static MatrixEventDispatcher concurrent(int maxConcurrentCallbacks) {
+
+    if (maxConcurrentCallbacks < 1) {
+      throw new IllegalArgumentException("At least one concurrent callback must be allowed");
+    }
+
+    return new MatrixEventDispatcher(
+        Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("matrix-event-dispatch-", 0).factory()),
+        new Semaphore(maxConcurrentCallbacks),
+        new Semaphore(Math.max(MAX_QUEUED_CALLBACKS, maxConcurrentCallbacks)));
+  }
+
+  /** Returns whether callbacks run concurrently to the thread dispatching them. */
+  public boolean isConcurrent() {
+
+    return executor != null;
+  }
+
+  /**
+   * Runs a callback after all callbacks dispatched before for the same room. In concurrent mode,
+   * this waits as long as the maximum number of callbacks is waiting to be run.
+   *
+   * @throws InterruptedException The thread has been interrupted while waiting.
+   */
+  public void dispatch(MatrixRoomId roomId, Runnable callback) throws InterruptedException {
+
+    if (executor == null) {
+      callback.run();
+      return;
+    }
+
+    queueSlots.acquire();
+    final CompletableFuture<Void> tail;
+    synchronized (roomQueueTails) {
+      tail =
+          roomQueueTails
+              .getOrDefault(roomId, CompletableFuture.completedFuture(null))
+              .thenRunAsync(() -> runWithPermit(callback), executor)
+              .handle(
+                  (ignored, e) -> {
+                    queueSlots.release();
+                    if (e != null) {
+                      LOG.error("Dropped dispatched callback", e);
+                    }
+
+                    return null;
+                  });
+      roomQueueTails.put(roomId, tail);
+    }
+
+    tail.thenRun(
+        () -> {
+          synchronized (roomQueueTails) {
+            roomQueueTails.remove(roomId, tail);
+          }
+        });
+  }
+
+  /**
+   * Returns a future completed once all callbacks dispatched so far have completed, regardless of
+   * callbacks dispatched later. It never completes exceptionally, even if callbacks failed.
+   */
+  public CompletableFuture<Void> whenDispatched() {
+
+    final CompletableFuture<?>[] tails;
+    synchronized (roomQueueTails) {
+      tails = roomQueueTails.values().toArray(CompletableFuture[]::new);
+    }
+
+    return CompletableFuture.allOf(tails);
+  }
+
+  /** Waits until all callbacks dispatched so far have completed. */
+  public void awaitDispatched() throws InterruptedException {
+
+    try {
+      whenDispatched().get();
+    } catch (ExecutionException e) {
+      // The tails complete normally even if their callback failed
+      throw new IllegalStateException(e);
+    }
+  }
+
+  public void shutdown() {
+
+    if (executor != null) {
+      executor.shutdown();
+    }
+  }
+
+  private void runWithPermit(Runnable callback) {
+
+    try {
+      permits.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CompletionException(e);
+    }
+
+    try {
+      callback.run();
+    } catch (Exception e) {
+      LOG.error("Uncaught exception in dispatched callback", e);
+    } finally {
+      permits.release();
+    }
+  }
+}
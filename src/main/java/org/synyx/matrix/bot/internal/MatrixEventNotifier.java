@@ -1,19 +1,23 @@
 package org.synyx.matrix.bot.internal;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.synyx.matrix.bot.MatrixEventConsumer;
+import org.synyx.matrix.bot.MatrixEventInterests;
+import org.synyx.matrix.bot.MatrixEventInterests.Callback;
+import org.synyx.matrix.bot.MatrixMetricsListener;
 import org.synyx.matrix.bot.MatrixState;
 import org.synyx.matrix.bot.domain.MatrixEmoteMessage;
 import org.synyx.matrix.bot.domain.MatrixEventId;
 import org.synyx.matrix.bot.domain.MatrixMessage;
 import org.synyx.matrix.bot.domain.MatrixMessageType;
-import org.synyx.matrix.bot.domain.MatrixNoticeMessage;
 import org.synyx.matrix.bot.domain.MatrixRoom;
 import org.synyx.matrix.bot.domain.MatrixRoomId;
 import org.synyx.matrix.bot.domain.MatrixRoomInvite;
@@ -22,31 +26,90 @@ import org.synyx.matrix.bot.domain.MatrixUserId;
 import org.synyx.matrix.bot.internal.api.dto.ClientEventDto;
 import org.synyx.matrix.bot.internal.api.dto.MembershipStateDto;
 import org.synyx.matrix.bot.internal.api.dto.StrippedStateEventDto;
-import org.synyx.matrix.bot.internal.api.dto.SyncResponseDto;
 import org.synyx.matrix.bot.internal.api.dto.event.MemberEventContentDto;
 import org.synyx.matrix.bot.internal.api.dto.event.MessageEventContentDto;
-
+import org.synyx.matrix.bot.internal.api.dto.event.MessageEventContentDto.MessageType;
+
+/**
+ * Notifies the event consumer about the events of synced batches. Notifications are collected while
+ * the batch is applied to the state and sent once it has been applied completely, so consumers
+ * always see the state including the batch. The rooms passed to the consumer are looked up by id in
+ * the state given when sending the notifications.
+ */
 public class MatrixEventNotifier {
 
   private static final Logger LOG = LoggerFactory.getLogger(MatrixEventNotifier.class);
 
-  private final ObjectMapper objectMapper;
   private final MatrixEventConsumer consumer;
+  private final MatrixEventInterests interests;
+  private final Map<MessageType, MessageFactory> messageFactories;
+  private final boolean membershipChangesNotified;
+  private final Set<String> senderIds;
+  private final MatrixEventDispatcher dispatcher;
+  private final MatrixEventDeduplicator deduplicator;
+  private final MatrixMetricsListener metricsListener;
+  private final List<PendingNotification> pendingNotifications;
+
+  private MatrixEventNotifier(
+      MatrixEventConsumer consumer,
+      MatrixEventInterests interests,
+      MatrixEventDispatcher dispatcher,
+      MatrixEventDeduplicator deduplicator,
+      MatrixMetricsListener metricsListener) {
 
-  private MatrixEventNotifier(ObjectMapper objectMapper, MatrixEventConsumer consumer) {
-
-    this.objectMapper = objectMapper;
     this.consumer = consumer;
+    this.interests = interests;
+    this.messageFactories = createMessageFactories(interests);
+    this.membershipChangesNotified =
+        interests.includes(Callback.USER_JOIN_ROOM) || interests.includes(Callback.USER_LEAVE_ROOM);
+    this.senderIds =
+        interests.getSenderIds().stream()
+            .map(MatrixUserId::getFormatted)
+            .collect(Collectors.toUnmodifiableSet());
+    this.dispatcher = dispatcher;
+    this.deduplicator = deduplicator;
+    this.metricsListener = metricsListener;
+    this.pendingNotifications = new ArrayList<>();
   }
 
   public static Optional<MatrixEventNotifier> from(
-      ObjectMapper objectMapper, MatrixEventConsumer consumer) {
+      MatrixEventConsumer consumer,
+      MatrixEventDispatcher dispatcher,
+      MatrixEventDeduplicator deduplicator,
+      MatrixMetricsListener metricsListener) {
 
     if (consumer == null) {
       return Optional.empty();
     }
 
-    return Optional.of(new MatrixEventNotifier(objectMapper, consumer));
+    final var interests =
+        Optional.ofNullable(consumer.getInterests()).orElseGet(MatrixEventInterests::all);
+
+    return Optional.of(
+        new MatrixEventNotifier(consumer, interests, dispatcher, deduplicator, metricsListener));
+  }
+
+  /**
+   * Creates the dispatch table of the message types to notify about. Notice messages are never
+   * included, as they should not be handled automatically.
+   */
+  private static Map<MessageType, MessageFactory> createMessageFactories(
+      MatrixEventInterests interests) {
+
+    final var messageFactories = new EnumMap<MessageType, MessageFactory>(MessageType.class);
+    if (!interests.includes(Callback.MESSAGE)) {
+      return messageFactories;
+    }
+
+    final var messageTypes = interests.getMessageTypes();
+    if (messageTypes.isEmpty() || messageTypes.contains(MatrixMessageType.TEXT)) {
+      messageFactories.put(MessageType.TEXT, MatrixTextMessage::from);
+    }
+    if (messageTypes.isEmpty() || messageTypes.contains(MatrixMessageType.EMOTE)) {
+      messageFactories.put(MessageType.EMOTE, MatrixEmoteMessage::from);
+    }
+
+    return messageFactories;
   }
 
   public MatrixEventConsumer getConsumer() {
@@ -54,135 +117,141 @@ public class MatrixEventNotifier {
     return consumer;
   }
 
-  public void notifyFromSynchronizationResponse(MatrixState state, SyncResponseDto syncResponse) {
+  public MatrixEventInterests getInterests() {
 
-    final var maybeRooms = Optional.ofNullable(syncResponse.rooms());
-    final var invitedRooms =
-        maybeRooms
-            .flatMap(syncRoomsDto -> Optional.ofNullable(syncRoomsDto.invite()))
-            .orElseGet(HashMap::new);
+    return interests;
+  }
 
-    for (var entry : invitedRooms.entrySet()) {
+  /**
+   * Returns whether the consumer is called concurrently to the syncing thread, in which case it
+   * must only be given read-only snapshots of the state.
+   */
+  public boolean isDispatchedConcurrently() {
 
-      final var roomId = MatrixRoomId.from(entry.getKey()).orElseThrow(IllegalStateException::new);
-      final var maybeRoom =
-          state.getInvitedRooms().stream()
-              .filter(invitedRoom -> invitedRoom.getId().equals(roomId))
-              .findAny();
+    return dispatcher.isConcurrent();
+  }
 
-      if (maybeRoom.isEmpty()) {
-        continue;
-      }
+  /**
+   * Collects the notification about an event of the timeline of a joined room. The notification is
+   * sent by {@link #notifyCollected(MatrixState)}, once the whole batch has been applied to the
+   * state. Events that have already been notified are skipped before anything is decoded.
+   */
+  public void collectTimelineEvent(MatrixRoom room, ClientEventDto event) {
 
-      final var room = maybeRoom.get();
-      Optional.ofNullable(entry.getValue())
-          .flatMap(roomDto -> Optional.ofNullable(roomDto.inviteState()))
-          .flatMap(inviteStateDto -> Optional.ofNullable(inviteStateDto.events()))
-          .orElseGet(List::of)
-          .forEach(eventDto -> notifyAboutInviteEvent(state, room, eventDto));
+    if (deduplicator.isSeen(event.eventId())) {
+      LOG.debug("Skipping already notified event {}", event.eventId());
+      return;
     }
 
-    final var joinedRooms =
-        maybeRooms
-            .flatMap(syncRoomsDto -> Optional.ofNullable(syncRoomsDto.join()))
-            .orElseGet(HashMap::new);
+    if (!isInterestedIn(room.getId(), event.sender())) {
+      return;
+    }
 
-    for (var entry : joinedRooms.entrySet()) {
+    if (MessageEventContentDto.TYPE.equals(event.type())) {
+      if (!messageFactories.isEmpty()) {
+        collectMessageEvent(room, event);
+      }
+    } else if (MemberEventContentDto.TYPE.equals(event.type())) {
+      if (membershipChangesNotified) {
+        collectMemberEvent(room, event);
+      }
+    }
+  }
 
-      final var roomId = MatrixRoomId.from(entry.getKey()).orElseThrow(IllegalStateException::new);
-      final var maybeRoom =
-          state.getJoinedRooms().stream()
-              .filter(joinedRoom -> joinedRoom.getId().equals(roomId))
-              .findAny();
+  /**
+   * Collects the notification about an event of the invite state of an invited room. The sender of
+   * the invite is looked up in the room once the notification is sent. Invite state events carry no
+   * event id, so they are not deduplicated.
+   */
+  public void collectInviteEvent(MatrixRoom room, StrippedStateEventDto event) {
 
-      if (maybeRoom.isEmpty()) {
-        continue;
-      }
+    if (!MemberEventContentDto.TYPE.equals(event.type())
+        || !interests.includes(Callback.INVITE_TO_ROOM)
+        || !isInterestedIn(room.getId(), event.sender())) {
+      return;
+    }
 
-      final var room = maybeRoom.get();
-      Optional.ofNullable(entry.getValue())
-          .flatMap(roomDto -> Optional.ofNullable(roomDto.timeline()))
-          .flatMap(timelineDto -> Optional.ofNullable(timelineDto.events()))
-          .orElseGet(List::of)
-          .forEach(eventDto -> notifyAboutTimelineEvent(state, room, eventDto));
+    if (!(event.content() instanceof MemberEventContentDto content)
+        || content.membership() != MembershipStateDto.INVITE) {
+      return;
     }
 
-    final var leftRooms =
-        maybeRooms
-            .flatMap(syncRoomsDto -> Optional.ofNullable(syncRoomsDto.leave()))
-            .orElseGet(HashMap::new);
+    pendingNotifications.add(new PendingInvite(room.getId(), event.sender()));
+  }
 
-    for (var entry : leftRooms.entrySet()) {
-      final var roomId = MatrixRoomId.from(entry.getKey()).orElseThrow(IllegalStateException::new);
+  public void collectSelfLeave(MatrixRoomId roomId) {
 
-      try {
-        consumer.onSelfLeaveRoom(state, roomId);
-      } catch (Exception e) {
-        LOG.error("Uncaught exception when consuming room leave", e);
-      }
+    if (!interests.includes(Callback.SELF_LEAVE_ROOM) || !isInterestedIn(roomId, null)) {
+      return;
     }
+
+    pendingNotifications.add(new PendingSelfLeave(roomId));
   }
 
-  private void notifyAboutTimelineEvent(MatrixState state, MatrixRoom room, ClientEventDto event) {
+  /**
+   * Discards the collected notifications about a room that has been removed from the state later in
+   * the same batch.
+   */
+  public void discardCollected(MatrixRoomId roomId) {
+
+    pendingNotifications.removeIf(notification -> notification.roomId().equals(roomId));
+  }
 
-    switch (event.type()) {
-      case MessageEventContentDto.TYPE:
-        notifyAboutMessageEvent(state, room, event);
-        break;
-      case MemberEventContentDto.TYPE:
-        notifyAboutMemberEvent(state, room, event);
-        break;
+  /**
+   * Sends the collected notifications in the order they have been collected.
+   *
+   * @param state The state passed to the consumer, a read-only snapshot if {@link
+   *     #isDispatchedConcurrently()}.
+   */
+  public void notifyCollected(MatrixState state) throws InterruptedException {
+
+    for (final var notification : pendingNotifications) {
+      switch (notification) {
+        case PendingMessage message -> notifyAboutMessage(state, message);
+        case PendingMembershipChange membershipChange ->
+            notifyAboutMembershipChange(state, membershipChange);
+        case PendingInvite invite -> notifyAboutInvite(state, invite);
+        case PendingSelfLeave selfLeave ->
+            dispatch(
+                selfLeave.roomId(),
+                "room leave",
+                () -> consumer.onSelfLeaveRoom(state, selfLeave.roomId()));
+      }
     }
+
+    pendingNotifications.clear();
   }
 
-  private void notifyAboutMessageEvent(MatrixState state, MatrixRoom room, ClientEventDto event) {
+  private void collectMessageEvent(MatrixRoom room, ClientEventDto event) {
 
-    MessageEventContentDto content;
-    try {
-      content = objectMapper.treeToValue(event.content(), MessageEventContentDto.class);
-    } catch (JsonProcessingException e) {
-      throw new RuntimeException(e);
+    if (!(event.content() instanceof MessageEventContentDto content)
+        || content.messageType() == null
+        || content.body() == null) {
+      LOG.error("Could not notify about invalid message: {}", event);
+      return;
     }
 
-    if (content.messageType() == null || content.body() == null) {
-      LOG.error("Could not notify about invalid message: {}", event);
+    final var messageFactory = messageFactories.get(content.messageType());
+    if (messageFactory == null) {
       return;
     }
 
     final var eventId = MatrixEventId.from(event.eventId()).orElseThrow(IllegalStateException::new);
     final var sender = MatrixUserId.from(event.sender()).orElseThrow(IllegalStateException::new);
 
-    Optional<MatrixMessage> maybeMessage =
-        switch (content.messageType()) {
-          case TEXT ->
-              MatrixTextMessage.from(eventId, content.body(), sender)
-                  .map(MatrixMessage.class::cast);
-          case EMOTE ->
-              MatrixEmoteMessage.from(eventId, content.body(), sender)
-                  .map(MatrixMessage.class::cast);
-          case NOTICE ->
-              MatrixNoticeMessage.from(eventId, content.body(), sender)
-                  .map(MatrixMessage.class::cast);
-          default -> Optional.empty();
-        };
-
-    try {
-      maybeMessage
-          // We should not handle notice messages as they should not be handled automatically
-          .filter(message -> message.getType() != MatrixMessageType.NOTICE)
-          .ifPresent(message -> consumer.onMessage(state, room, message));
-    } catch (Exception e) {
-      LOG.error("Uncaught exception when consuming message", e);
-    }
+    messageFactory
+        .create(eventId, content.body(), sender)
+        .ifPresent(
+            message ->
+                pendingNotifications.add(
+                    new PendingMessage(room.getId(), event.eventId(), message)));
   }
 
-  private void notifyAboutMemberEvent(MatrixState state, MatrixRoom room, ClientEventDto event) {
+  private void collectMemberEvent(MatrixRoom room, ClientEventDto event) {
 
-    MemberEventContentDto content;
-    try {
-      content = objectMapper.treeToValue(event.content(), MemberEventContentDto.class);
-    } catch (JsonProcessingException e) {
-      throw new RuntimeException(e);
+    if (!(event.content() instanceof MemberEventContentDto content)) {
+      LOG.error("Could not notify about invalid member event: {}", event);
+      return;
     }
 
     final var maybePreviousContent = getPreviousContent(event, MemberEventContentDto.class);
@@ -197,75 +266,137 @@ public class MatrixEventNotifier {
 
     final var sender = MatrixUserId.from(event.sender()).orElseThrow(IllegalStateException::new);
 
-    try {
-      if (content.membership() == MembershipStateDto.LEAVE
-          || content.membership() == MembershipStateDto.BAN) {
-        if (previousMembership == MembershipStateDto.JOIN) {
-          consumer.onUserLeaveRoom(state, room, sender);
-        }
-      } else if (content.membership() == MembershipStateDto.JOIN
-          && !sender.equals(state.getOwnUserId())) {
-        if (previousMembership == MembershipStateDto.LEAVE) {
-          consumer.onUserJoinRoom(state, room, sender);
-        }
+    if (content.membership() == MembershipStateDto.LEAVE
+        || content.membership() == MembershipStateDto.BAN) {
+      if (previousMembership == MembershipStateDto.JOIN
+          && interests.includes(Callback.USER_LEAVE_ROOM)) {
+        pendingNotifications.add(
+            new PendingMembershipChange(room.getId(), event.eventId(), sender, false));
       }
-    } catch (Exception e) {
-      LOG.error("Uncaught exception when consuming member event", e);
+    } else if (content.membership() == MembershipStateDto.JOIN) {
+      if (previousMembership == MembershipStateDto.LEAVE
+          && interests.includes(Callback.USER_JOIN_ROOM)) {
+        pendingNotifications.add(
+            new PendingMembershipChange(room.getId(), event.eventId(), sender, true));
+      }
+    }
+  }
+
+  private void notifyAboutMessage(MatrixState state, PendingMessage message)
+      throws InterruptedException {
+
+    final var maybeRoom = state.findJoinedRoomById(message.roomId());
+    if (maybeRoom.isEmpty() || isAlreadyNotified(message.eventId())) {
+      return;
     }
+
+    final var room = maybeRoom.get();
+    dispatch(room.getId(), "message", () -> consumer.onMessage(state, room, message.message()));
   }
 
-  private void notifyAboutInviteEvent(
-      MatrixState state, MatrixRoom room, StrippedStateEventDto event) {
+  private void notifyAboutMembershipChange(
+      MatrixState state, PendingMembershipChange membershipChange) throws InterruptedException {
 
-    if (!MemberEventContentDto.TYPE.equals(event.type())) {
+    final var maybeRoom = state.findJoinedRoomById(membershipChange.roomId());
+    if (maybeRoom.isEmpty() || isAlreadyNotified(membershipChange.eventId())) {
       return;
     }
 
-    MemberEventContentDto messageEventContent;
-    try {
-      messageEventContent = objectMapper.treeToValue(event.content(), MemberEventContentDto.class);
-    } catch (JsonProcessingException e) {
-      throw new RuntimeException(e);
+    final var room = maybeRoom.get();
+    final var userId = membershipChange.userId();
+    if (!membershipChange.joined()) {
+      dispatch(room.getId(), "member event", () -> consumer.onUserLeaveRoom(state, room, userId));
+    } else if (!userId.equals(state.getOwnUserId())) {
+      dispatch(room.getId(), "member event", () -> consumer.onUserJoinRoom(state, room, userId));
     }
+  }
+
+  private void notifyAboutInvite(MatrixState state, PendingInvite invite)
+      throws InterruptedException {
 
-    if (messageEventContent.membership() != MembershipStateDto.INVITE) {
+    final var maybeRoom = state.findInvitedRoomById(invite.roomId());
+    if (maybeRoom.isEmpty()) {
       return;
     }
 
-    final var maybeSender =
-        MatrixUserId.from(event.sender())
-            .flatMap(
-                senderId ->
-                    room.getRoomUsers().stream()
-                        .filter(matrixUser -> matrixUser.getId().equals(senderId))
-                        .findAny());
+    final var room = maybeRoom.get();
+    final var maybeSender = MatrixUserId.from(invite.sender()).flatMap(room::findUserInRoomById);
 
     final var roomInvite =
         MatrixRoomInvite.from(room, maybeSender.orElse(null))
             .orElseThrow(IllegalStateException::new);
 
-    try {
-      consumer.onInviteToRoom(state, roomInvite);
-    } catch (Exception e) {
-      LOG.error("Uncaught exception when consuming room invite", e);
+    dispatch(room.getId(), "room invite", () -> consumer.onInviteToRoom(state, roomInvite));
+  }
+
+  private boolean isInterestedIn(MatrixRoomId roomId, String rawSender) {
+
+    final var roomIds = interests.getRoomIds();
+    if (!roomIds.isEmpty() && !roomIds.contains(roomId)) {
+      return false;
     }
+
+    return rawSender == null || senderIds.isEmpty() || senderIds.contains(rawSender);
+  }
+
+  private boolean isAlreadyNotified(String eventId) {
+
+    // Marked only now, as the notification may have been discarded or collected twice in a batch
+    if (!deduplicator.markSeen(eventId)) {
+      LOG.debug("Skipping already notified event {}", eventId);
+      return true;
+    }
+
+    return false;
+  }
+
+  private void dispatch(MatrixRoomId roomId, String consumedEvent, Runnable callback)
+      throws InterruptedException {
+
+    dispatcher.dispatch(
+        roomId,
+        () -> {
+          final var start = System.nanoTime();
+          try {
+            callback.run();
+          } catch (Exception e) {
+            LOG.error("Uncaught exception when consuming {}", consumedEvent, e);
+          } finally {
+            metricsListener.onCallback(consumedEvent, System.nanoTime() - start);
+          }
+        });
   }
 
   private <T> Optional<T> getPreviousContent(ClientEventDto event, Class<T> clazz) {
 
-    final var maybeJson =
-        Optional.ofNullable(event)
-            .flatMap(clientEventDto -> Optional.ofNullable(clientEventDto.unsigned()))
-            .flatMap(unsignedDataDto -> Optional.ofNullable(unsignedDataDto.prevContent()));
+    return Optional.ofNullable(event)
+        .flatMap(clientEventDto -> Optional.ofNullable(clientEventDto.unsigned()))
+        .flatMap(unsignedDataDto -> Optional.ofNullable(unsignedDataDto.prevContent()))
+        .filter(clazz::isInstance)
+        .map(clazz::cast);
+  }
 
-    if (maybeJson.isEmpty()) {
-      return Optional.empty();
-    }
+  private interface MessageFactory {
 
-    try {
-      return Optional.ofNullable(objectMapper.treeToValue(maybeJson.get(), clazz));
-    } catch (JsonProcessingException e) {
-      throw new RuntimeException(e);
-    }
+    Optional<? extends MatrixMessage> create(
+        MatrixEventId eventId, String body, MatrixUserId sender);
+  }
+
+  private sealed interface PendingNotification
+      permits PendingMessage, PendingMembershipChange, PendingInvite, PendingSelfLeave {
+
+    MatrixRoomId roomId();
   }
+
+  private record PendingMessage(MatrixRoomId roomId, String eventId, MatrixMessage message)
+      implements PendingNotification {}
+
+  private record PendingMembershipChange(
+      MatrixRoomId roomId, String eventId, MatrixUserId userId, boolean joined)
+      implements PendingNotification {}
+
+  private record PendingInvite(MatrixRoomId roomId, String sender)
+      implements PendingNotification {}
+
+  private record PendingSelfLeave(MatrixRoomId roomId) implements PendingNotification {}
 }
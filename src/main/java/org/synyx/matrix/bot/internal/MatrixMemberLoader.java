@@ -0,0 +1,149 @@
+package org.synyx.matrix.bot.internal;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.synyx.matrix.bot.domain.MatrixRoomId;
+import org.synyx.matrix.bot.domain.MatrixRoomMemberLoader;
+import org.synyx.matrix.bot.domain.MatrixUser;
+import org.synyx.matrix.bot.domain.MatrixUserId;
+import org.synyx.matrix.bot.internal.api.MatrixApi;
+import org.synyx.matrix.bot.internal.api.MatrixApiException;
+
+/**
+ * Fetches the joined members of rooms from the server when members are lazy loaded. The members of
+ * the most recently used rooms are cached up to a total number of members, the members of the least
+ * recently used rooms are forgotten first. The loaded users are read-only, as they are shared
+ * between all threads looking up members.
+ */
+public class MatrixMemberLoader implements MatrixRoomMemberLoader {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MatrixMemberLoader.class);
+
+  public static final int DEFAULT_CAPACITY = 10_000;
+
+  private final MatrixApi api;
+  private final LinkedHashMap<MatrixRoomId, Map<MatrixUserId, MatrixUser>> membersByRoom;
+  private final Map<MatrixRoomId, Object> loadsInProgress;
+  private int capacity;
+  private int cachedMemberCount;
+
+  public MatrixMemberLoader(MatrixApi api, int capacity) {
+
+    this.api = api;
+    this.membersByRoom = new LinkedHashMap<>(16, 0.75F, true);
+    this.loadsInProgress = new HashMap<>();
+    this.capacity = capacity;
+    this.cachedMemberCount = 0;
+  }
+
+  @Override
+  public Optional<MatrixUser> findMember(MatrixRoomId roomId, MatrixUserId userId) {
+
+    return getOrLoadMembers(roomId).map(members -> members.get(userId));
+  }
+
+  @Override
+  public synchronized void invalidate(MatrixRoomId roomId) {
+
+    // Members being loaded right now may already be outdated, so they must not be cached
+    loadsInProgress.remove(roomId);
+    final var members = membersByRoom.remove(roomId);
+    if (members != null) {
+      cachedMemberCount -= members.size();
+    }
+  }
+
+  public synchronized void invalidateAll() {
+
+    loadsInProgress.clear();
+    membersByRoom.clear();
+    cachedMemberCount = 0;
+  }
+
+  public synchronized void setCapacity(int capacity) {
+
+    this.capacity = capacity;
+    trimToCapacity(null);
+  }
+
+  private Optional<Map<MatrixUserId, MatrixUser>> getOrLoadMembers(MatrixRoomId roomId) {
+
+    final var load = new Object();
+    synchronized (this) {
+      final var cachedMembers = membersByRoom.get(roomId);
+      if (cachedMembers != null) {
+        return Optional.of(cachedMembers);
+      }
+      loadsInProgress.put(roomId, load);
+    }
+
+    final Map<MatrixUserId, MatrixUser> members;
+    try {
+      members = loadMembers(roomId);
+    } catch (IOException | MatrixApiException e) {
+      LOG.warn("Failed to load members of room {}", roomId, e);
+      forgetLoad(roomId, load);
+      return Optional.empty();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      forgetLoad(roomId, load);
+      return Optional.empty();
+    }
+
+    synchronized (this) {
+      // Not cached if the room has been invalidated or loaded again in the meantime
+      if (loadsInProgress.remove(roomId, load) && capacity > 0) {
+        invalidate(roomId);
+        membersByRoom.put(roomId, members);
+        cachedMemberCount += members.size();
+        trimToCapacity(roomId);
+      }
+    }
+
+    return Optional.of(members);
+  }
+
+  private Map<MatrixUserId, MatrixUser> loadMembers(MatrixRoomId roomId)
+      throws IOException, InterruptedException, MatrixApiException {
+
+    final var members = new HashMap<MatrixUserId, MatrixUser>();
+    api.getJoinedMembers(roomId.getFormatted())
+        .forEach(
+            (rawUserId, memberDto) ->
+                MatrixUserId.from(rawUserId)
+                    .flatMap(MatrixUser::from)
+                    .ifPresent(
+                        user -> {
+                          if (memberDto != null) {
+                            user.setDisplayName(memberDto.displayName());
+                          }
+                          user.makeReadOnly();
+                          members.put(user.getId(), user);
+                        }));
+
+    return members;
+  }
+
+  private synchronized void forgetLoad(MatrixRoomId roomId, Object load) {
+
+    loadsInProgress.remove(roomId, load);
+  }
+
+  /** Evicts the least recently used rooms, but always keeps the given one. */
+  private void trimToCapacity(MatrixRoomId keptRoomId) {
+
+    final var iterator = membersByRoom.entrySet().iterator();
+    while (cachedMemberCount > capacity && iterator.hasNext()) {
+      final var entry = iterator.next();
+      if (!entry.getKey().equals(keptRoomId)) {
+        cachedMemberCount -= entry.getValue().size();
+        iterator.remove();
+      }
+    }
+  }
+}
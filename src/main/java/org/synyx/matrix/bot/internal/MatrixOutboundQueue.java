@@ -0,0 +1,96 @@
+package org.synyx.matrix.bot.internal;
+
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.synyx.matrix.bot.domain.MatrixRoomId;
+import org.synyx.matrix.bot.internal.api.MatrixApi;
+import org.synyx.matrix.bot.internal.api.MatrixApiException;
+
+/**
+ * Sends events to rooms while honouring rate limits of the server. Events of the same room are sent
+ * one after another in the order they were enqueued, events of different rooms are sent in
+ * parallel. Rate limited events are retried with the same transaction id after the delay requested
+ * by the server, so the server can deduplicate them.
+ */
+public class MatrixOutboundQueue {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MatrixOutboundQueue.class);
+
+  private static final int MAX_ATTEMPTS = 20;
+  private static final Duration DEFAULT_RETRY_AFTER = Duration.of(1, ChronoUnit.SECONDS);
+
+  private final MatrixApi api;
+  private final Map<MatrixRoomId, CompletableFuture<Void>> roomQueueTails;
+
+  public MatrixOutboundQueue(MatrixApi api) {
+
+    this.api = api;
+    this.roomQueueTails = new HashMap<>();
+  }
+
+  public CompletableFuture<String> sendEvent(MatrixRoomId roomId, String eventType, Object event) {
+
+    final var transactionId = UUID.randomUUID().toString();
+
+    final CompletableFuture<String> sentEvent;
+    final CompletableFuture<Void> tail;
+    synchronized (roomQueueTails) {
+      sentEvent =
+          roomQueueTails
+              .getOrDefault(roomId, CompletableFuture.completedFuture(null))
+              .thenCompose(ignored -> send(roomId, eventType, transactionId, event, 1));
+      tail = sentEvent.handle((eventId, e) -> null);
+      roomQueueTails.put(roomId, tail);
+    }
+
+    tail.thenRun(
+        () -> {
+          synchronized (roomQueueTails) {
+            roomQueueTails.remove(roomId, tail);
+          }
+        });
+
+    return sentEvent;
+  }
+
+  private CompletableFuture<String> send(
+      MatrixRoomId roomId, String eventType, String transactionId, Object event, int attempt) {
+
+    return api.sendEventAsync(roomId.getFormatted(), eventType, transactionId, event)
+        .exceptionallyCompose(
+            e -> {
+              final var cause = unwrap(e);
+              if (!(cause instanceof MatrixApiException apiException)
+                  || !apiException.isRateLimited()
+                  || attempt >= MAX_ATTEMPTS) {
+                return CompletableFuture.failedFuture(cause);
+              }
+
+              final var retryAfter = apiException.getRetryAfter().orElse(DEFAULT_RETRY_AFTER);
+              LOG.debug(
+                  "Rate limited when sending to {}, retrying in {}ms",
+                  roomId,
+                  retryAfter.toMillis());
+
+              return CompletableFuture.runAsync(
+                      () -> {},
+                      CompletableFuture.delayedExecutor(
+                          retryAfter.toMillis(), TimeUnit.MILLISECONDS))
+                  .thenCompose(
+                      ignored -> send(roomId, eventType, transactionId, event, attempt + 1));
+            });
+  }
+
+  private static Throwable unwrap(Throwable e) {
+
+    return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+  }
+}
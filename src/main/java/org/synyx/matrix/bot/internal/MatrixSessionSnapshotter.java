@@ -0,0 +1,80 @@
+package org.synyx.matrix.bot.internal;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.synyx.matrix.bot.MatrixCommunicationException;
+import org.synyx.matrix.bot.domain.MatrixUserId;
+import org.synyx.matrix.bot.internal.snapshot.SessionSnapshotDto;
+
+public class MatrixSessionSnapshotter {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MatrixSessionSnapshotter.class);
+
+  private static final int SNAPSHOT_VERSION = 1;
+
+  private final ObjectMapper objectMapper;
+
+  public MatrixSessionSnapshotter(ObjectMapper objectMapper) {
+
+    this.objectMapper = objectMapper;
+  }
+
+  public String createSnapshot(MatrixAuthentication authentication) {
+
+    final var snapshot =
+        new SessionSnapshotDto(
+            SNAPSHOT_VERSION,
+            authentication.getUserId().map(MatrixUserId::getFormatted).orElse(null),
+            authentication.getBearerToken().orElse(null),
+            authentication.getRefreshToken().orElse(null),
+            authentication.getDeviceId().orElse(null));
+
+    try {
+      return objectMapper.writeValueAsString(snapshot);
+    } catch (JsonProcessingException e) {
+      throw new MatrixCommunicationException("Failed to create session snapshot", e);
+    }
+  }
+
+  /**
+   * Restores a session into the given authentication, as long as it belongs to the configured user.
+   *
+   * @return {@code true} if the session has been restored, {@code false} otherwise.
+   */
+  public boolean restoreSnapshot(String value, MatrixAuthentication authentication) {
+
+    SessionSnapshotDto snapshot;
+    try {
+      snapshot = objectMapper.readValue(value, SessionSnapshotDto.class);
+    } catch (JsonProcessingException e) {
+      LOG.warn("Ignoring unreadable session snapshot", e);
+      return false;
+    }
+
+    if (snapshot.version() != SNAPSHOT_VERSION) {
+      LOG.info("Ignoring session snapshot of unsupported version {}", snapshot.version());
+      return false;
+    }
+
+    final var maybeUserId = MatrixUserId.from(snapshot.userId() == null ? "" : snapshot.userId());
+    if (maybeUserId.isEmpty() || !belongsToUser(maybeUserId.get(), authentication.getUsername())) {
+      LOG.info("Ignoring session snapshot of different user {}", snapshot.userId());
+      return false;
+    }
+
+    authentication.setUserId(maybeUserId.get());
+    authentication.setBearerToken(snapshot.accessToken());
+    authentication.setRefreshToken(snapshot.refreshToken());
+    authentication.setDeviceId(snapshot.deviceId());
+
+    return authentication.isAuthenticated();
+  }
+
+  private static boolean belongsToUser(MatrixUserId userId, String username) {
+
+    // Logins accept both the full user id and the local part only
+    return username.equals(userId.getFormatted()) || username.equals(userId.getLocalPart());
+  }
+}
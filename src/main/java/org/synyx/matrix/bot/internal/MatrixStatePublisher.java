@@ -0,0 +1,52 @@
+package org.synyx.matrix.bot.internal;
+
+import java.util.Optional;
+import java.util.Set;
+import org.synyx.matrix.bot.MatrixState;
+import org.synyx.matrix.bot.domain.MatrixRoomId;
+
+/**
+ * Publishes read-only copies of the state that are safe to be read from other threads while the
+ * syncing thread keeps changing the state. Each copy is created from the previous one, so only
+ * rooms that changed since then are copied again, all other rooms are shared. Users are never
+ * copied, since they are made read-only when published and replaced by the syncing thread when
+ * they change.
+ */
+public class MatrixStatePublisher {
+
+  private volatile MatrixState publishedState;
+  private MatrixState sourceState;
+
+  public MatrixStatePublisher() {
+
+    this.publishedState = null;
+    this.sourceState = null;
+  }
+
+  public Optional<MatrixState> getPublishedState() {
+
+    return Optional.ofNullable(publishedState);
+  }
+
+  /**
+   * Publishes a copy of the given state. Must only be called by the thread changing the state.
+   *
+   * @param state The state to publish a copy of.
+   * @param changedRoomIds The ids of the rooms that changed since the previous call.
+   */
+  public void publish(MatrixState state, Set<MatrixRoomId> changedRoomIds) {
+
+    if (state != sourceState) {
+      sourceState = state;
+      publishedState = state.toReadOnlyCopy();
+    } else if (!changedRoomIds.isEmpty()) {
+      publishedState = publishedState.toUpdatedReadOnlyCopy(state, changedRoomIds);
+    }
+  }
+
+  public void clear() {
+
+    publishedState = null;
+    sourceState = null;
+  }
+}
@@ -0,0 +1,127 @@
+package org.synyx.matrix.bot.internal;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.synyx.matrix.bot.MatrixCommunicationException;
+import org.synyx.matrix.bot.MatrixState;
+import org.synyx.matrix.bot.domain.MatrixRoom;
+import org.synyx.matrix.bot.domain.MatrixRoomAlias;
+import org.synyx.matrix.bot.domain.MatrixRoomId;
+import org.synyx.matrix.bot.domain.MatrixUser;
+import org.synyx.matrix.bot.domain.MatrixUserId;
+import org.synyx.matrix.bot.internal.snapshot.RoomSnapshotDto;
+import org.synyx.matrix.bot.internal.snapshot.StateSnapshotDto;
+
+public class MatrixStateSnapshotter {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MatrixStateSnapshotter.class);
+
+  private static final int SNAPSHOT_VERSION = 1;
+
+  private final ObjectMapper objectMapper;
+
+  public MatrixStateSnapshotter(ObjectMapper objectMapper) {
+
+    this.objectMapper = objectMapper;
+  }
+
+  public String createSnapshot(MatrixState state) {
+
+    final var snapshot =
+        new StateSnapshotDto(
+            SNAPSHOT_VERSION,
+            state.getOwnUserId().getFormatted(),
+            state.getInvitedRooms().stream().map(MatrixStateSnapshotter::toRoomSnapshot).toList(),
+            state.getJoinedRooms().stream().map(MatrixStateSnapshotter::toRoomSnapshot).toList());
+
+    try {
+      return objectMapper.writeValueAsString(snapshot);
+    } catch (JsonProcessingException e) {
+      throw new MatrixCommunicationException("Failed to create state snapshot", e);
+    }
+  }
+
+  public Optional<MatrixState> restoreSnapshot(String value, MatrixUserId ownUserId) {
+
+    StateSnapshotDto snapshot;
+    try {
+      snapshot = objectMapper.readValue(value, StateSnapshotDto.class);
+    } catch (JsonProcessingException e) {
+      LOG.warn("Ignoring unreadable state snapshot", e);
+      return Optional.empty();
+    }
+
+    if (snapshot.version() != SNAPSHOT_VERSION) {
+      LOG.info("Ignoring state snapshot of unsupported version {}", snapshot.version());
+      return Optional.empty();
+    }
+
+    if (!ownUserId.getFormatted().equals(snapshot.ownUserId())) {
+      LOG.info("Ignoring state snapshot of different user {}", snapshot.ownUserId());
+      return Optional.empty();
+    }
+
+    final var state = new MatrixState(ownUserId);
+    try {
+      Optional.ofNullable(snapshot.invitedRooms())
+          .orElseGet(List::of)
+          .forEach(roomSnapshot -> state.addInvitedRoom(fromRoomSnapshot(roomSnapshot)));
+      Optional.ofNullable(snapshot.joinedRooms())
+          .orElseGet(List::of)
+          .forEach(roomSnapshot -> state.addJoinedRoom(fromRoomSnapshot(roomSnapshot)));
+    } catch (IllegalStateException e) {
+      LOG.warn("Ignoring state snapshot containing invalid identifiers", e);
+      return Optional.empty();
+    }
+
+    return Optional.of(state);
+  }
+
+  private static RoomSnapshotDto toRoomSnapshot(MatrixRoom room) {
+
+    final var members = new HashMap<String, String>();
+    room.getRoomUsers()
+        .forEach(
+            user -> members.put(user.getId().getFormatted(), user.getDisplayName().orElse(null)));
+
+    return new RoomSnapshotDto(
+        room.getId().getFormatted(),
+        room.getCanonicalAlias().map(MatrixRoomAlias::getFormatted).orElse(null),
+        room.getName().orElse(null),
+        members,
+        room.getJoinedMemberCount() != members.size() ? room.getJoinedMemberCount() : null);
+  }
+
+  private static MatrixRoom fromRoomSnapshot(RoomSnapshotDto roomSnapshot) {
+
+    final var room =
+        MatrixRoomId.from(roomSnapshot.id())
+            .flatMap(MatrixRoom::from)
+            .orElseThrow(IllegalStateException::new);
+
+    Optional.ofNullable(roomSnapshot.canonicalAlias())
+        .flatMap(MatrixRoomAlias::from)
+        .ifPresent(room::setCanonicalAlias);
+    room.setName(roomSnapshot.name());
+    room.setJoinedMemberCount(roomSnapshot.joinedMemberCount());
+
+    Optional.ofNullable(roomSnapshot.members())
+        .orElseGet(HashMap::new)
+        .forEach(
+            (userId, displayName) -> {
+              final var user =
+                  MatrixUserId.from(userId)
+                      .flatMap(MatrixUser::from)
+                      .orElseThrow(IllegalStateException::new);
+              user.setDisplayName(displayName);
+              room.addUser(user);
+            });
+
+    return room;
+  }
+}
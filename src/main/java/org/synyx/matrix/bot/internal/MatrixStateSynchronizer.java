@@ -1,148 +1,236 @@
 package org.synyx.matrix.bot.internal;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import org.synyx.matrix.bot.MatrixState;
 import org.synyx.matrix.bot.domain.MatrixRoom;
 import org.synyx.matrix.bot.domain.MatrixRoomAlias;
 import org.synyx.matrix.bot.domain.MatrixRoomId;
+import org.synyx.matrix.bot.domain.MatrixRoomMemberLoader;
 import org.synyx.matrix.bot.domain.MatrixUser;
 import org.synyx.matrix.bot.domain.MatrixUserId;
 import org.synyx.matrix.bot.internal.api.dto.ClientEventDto;
+import org.synyx.matrix.bot.internal.api.dto.InvitedRoomDto;
+import org.synyx.matrix.bot.internal.api.dto.JoinedRoomDto;
+import org.synyx.matrix.bot.internal.api.dto.LeftRoomDto;
 import org.synyx.matrix.bot.internal.api.dto.MembershipStateDto;
 import org.synyx.matrix.bot.internal.api.dto.StrippedStateEventDto;
 import org.synyx.matrix.bot.internal.api.dto.SyncResponseDto;
 import org.synyx.matrix.bot.internal.api.dto.event.CanonicalAliasEventContentDto;
+import org.synyx.matrix.bot.internal.api.dto.event.EventContentDto;
 import org.synyx.matrix.bot.internal.api.dto.event.MemberEventContentDto;
 import org.synyx.matrix.bot.internal.api.dto.event.RoomNameEventContentDto;
 
 public class MatrixStateSynchronizer {
 
   private final MatrixState state;
-  private final ObjectMapper objectMapper;
+  private MatrixRoomMemberLoader memberLoader;
+  private final Set<MatrixRoomId> changedRoomIds;
+  private int processedEventCount;
+  private long synchronizationNanos;
 
-  public MatrixStateSynchronizer(MatrixState state, ObjectMapper objectMapper) {
+  public MatrixStateSynchronizer(MatrixState state) {
 
     this.state = state;
-    this.objectMapper = objectMapper;
+    this.memberLoader = null;
+    this.changedRoomIds = new HashSet<>();
+    this.processedEventCount = 0;
+    this.synchronizationNanos = 0;
   }
 
-  public void synchronizeState(SyncResponseDto syncResponse) {
+  /**
+   * Sets the loader for members that are not part of the synced state on all current and future
+   * joined rooms. Only needed if members are lazy loaded.
+   */
+  public void setMemberLoader(MatrixRoomMemberLoader memberLoader) {
 
-    final var maybeRooms = Optional.ofNullable(syncResponse.rooms());
-    final var invitedRooms =
-        maybeRooms
-            .flatMap(syncRoomsDto -> Optional.ofNullable(syncRoomsDto.invite()))
-            .orElseGet(HashMap::new);
+    this.memberLoader = memberLoader;
+    state.getJoinedRooms().forEach(room -> room.setMemberLoader(memberLoader));
+  }
 
-    for (var entry : invitedRooms.entrySet()) {
+  /**
+   * Returns the ids of the rooms that have been added, removed or changed in name, alias or members
+   * since the last call of {@link #resetChangedRoomIds()}.
+   */
+  public Set<MatrixRoomId> getChangedRoomIds() {
 
-      final var roomId = MatrixRoomId.from(entry.getKey()).orElseThrow(IllegalStateException::new);
-      final var room = getOrCreateRoom(state.getInvitedRooms(), roomId);
+    return changedRoomIds;
+  }
 
-      Optional.ofNullable(entry.getValue())
-          .flatMap(roomDto -> Optional.ofNullable(roomDto.inviteState()))
-          .flatMap(inviteStateDto -> Optional.ofNullable(inviteStateDto.events()))
-          .orElseGet(List::of)
-          .forEach(eventDto -> synchronizeStrippedEvent(room, eventDto));
-    }
+  public void resetChangedRoomIds() {
 
-    final var joinedRooms =
-        maybeRooms
-            .flatMap(syncRoomsDto -> Optional.ofNullable(syncRoomsDto.join()))
-            .orElseGet(HashMap::new);
+    changedRoomIds.clear();
+  }
 
-    for (var entry : joinedRooms.entrySet()) {
+  /**
+   * Returns the number of events processed since the last call of {@link #resetStatistics()}.
+   */
+  public int getProcessedEventCount() {
 
-      final var roomId = MatrixRoomId.from(entry.getKey()).orElseThrow(IllegalStateException::new);
-      removeFromInvitedRoomsIfExisting(roomId);
-      final var room = getOrCreateRoom(state.getJoinedRooms(), roomId);
+    return processedEventCount;
+  }
 
-      Optional.ofNullable(entry.getValue())
-          .flatMap(roomDto -> Optional.ofNullable(roomDto.state()))
-          .flatMap(roomStateDto -> Optional.ofNullable(roomStateDto.events()))
-          .orElseGet(List::of)
-          .forEach(eventDto -> synchronizeClientEvent(room, eventDto));
+  /**
+   * Returns the time spent synchronizing rooms since the last call of {@link #resetStatistics()}.
+   */
+  public long getSynchronizationNanos() {
 
-      Optional.ofNullable(entry.getValue())
-          .flatMap(roomDto -> Optional.ofNullable(roomDto.timeline()))
-          .flatMap(timelineDto -> Optional.ofNullable(timelineDto.events()))
-          .orElseGet(List::of)
-          .forEach(eventDto -> synchronizeClientEvent(room, eventDto));
-    }
+    return synchronizationNanos;
+  }
+
+  public void resetStatistics() {
+
+    processedEventCount = 0;
+    synchronizationNanos = 0;
+  }
 
-    final var leftRooms =
-        maybeRooms
-            .flatMap(syncRoomsDto -> Optional.ofNullable(syncRoomsDto.leave()))
-            .orElseGet(HashMap::new);
+  public void synchronizeState(SyncResponseDto syncResponse) {
+
+    synchronizeState(syncResponse, null);
+  }
 
-    for (var entry : leftRooms.entrySet()) {
+  /**
+   * Applies a sync response to the state in a single pass over its events. If an event notifier is
+   * given, the notifications about the events are collected during the same pass. They have to be
+   * sent using {@link MatrixEventNotifier#notifyCollected(MatrixState)} afterwards.
+   */
+  public void synchronizeState(SyncResponseDto syncResponse, MatrixEventNotifier eventNotifier) {
 
-      final var roomId = MatrixRoomId.from(entry.getKey()).orElseThrow(IllegalStateException::new);
-      removeFromJoinedRoomsIfExisting(roomId);
+    final var maybeRooms = Optional.ofNullable(syncResponse.rooms());
+    maybeRooms
+        .flatMap(syncRoomsDto -> Optional.ofNullable(syncRoomsDto.invite()))
+        .orElseGet(HashMap::new)
+        .forEach((roomId, roomDto) -> synchronizeInvitedRoom(roomId, roomDto, eventNotifier));
+
+    maybeRooms
+        .flatMap(syncRoomsDto -> Optional.ofNullable(syncRoomsDto.join()))
+        .orElseGet(HashMap::new)
+        .forEach((roomId, roomDto) -> synchronizeJoinedRoom(roomId, roomDto, eventNotifier));
+
+    maybeRooms
+        .flatMap(syncRoomsDto -> Optional.ofNullable(syncRoomsDto.leave()))
+        .orElseGet(HashMap::new)
+        .forEach((roomId, roomDto) -> synchronizeLeftRoom(roomId, roomDto, eventNotifier));
+  }
+
+  public void synchronizeInvitedRoom(
+      String rawRoomId, InvitedRoomDto roomDto, MatrixEventNotifier eventNotifier) {
+
+    final var start = System.nanoTime();
+    final var roomId = MatrixRoomId.from(rawRoomId).orElseThrow(IllegalStateException::new);
+    final var room = getOrCreateRoom(roomId, state::findInvitedRoomById, state::addInvitedRoom);
+
+    Optional.ofNullable(roomDto)
+        .flatMap(invitedRoomDto -> Optional.ofNullable(invitedRoomDto.inviteState()))
+        .flatMap(inviteStateDto -> Optional.ofNullable(inviteStateDto.events()))
+        .orElseGet(List::of)
+        .forEach(
+            eventDto -> {
+              synchronizeStrippedEvent(room, eventDto);
+              if (eventNotifier != null) {
+                eventNotifier.collectInviteEvent(room, eventDto);
+              }
+            });
+
+    synchronizationNanos += System.nanoTime() - start;
+  }
+
+  public void synchronizeJoinedRoom(
+      String rawRoomId, JoinedRoomDto roomDto, MatrixEventNotifier eventNotifier) {
+
+    final var start = System.nanoTime();
+    final var roomId = MatrixRoomId.from(rawRoomId).orElseThrow(IllegalStateException::new);
+    removeFromInvitedRoomsIfExisting(roomId, eventNotifier);
+    final var room = getOrCreateRoom(roomId, state::findJoinedRoomById, this::addJoinedRoom);
+
+    Optional.ofNullable(roomDto)
+        .flatMap(joinedRoomDto -> Optional.ofNullable(joinedRoomDto.summary()))
+        .flatMap(summaryDto -> Optional.ofNullable(summaryDto.joinedMemberCount()))
+        .ifPresent(joinedMemberCount -> synchronizeJoinedMemberCount(room, joinedMemberCount));
+
+    Optional.ofNullable(roomDto)
+        .flatMap(joinedRoomDto -> Optional.ofNullable(joinedRoomDto.state()))
+        .flatMap(roomStateDto -> Optional.ofNullable(roomStateDto.events()))
+        .orElseGet(List::of)
+        .forEach(eventDto -> synchronizeClientEvent(room, eventDto));
+
+    Optional.ofNullable(roomDto)
+        .flatMap(joinedRoomDto -> Optional.ofNullable(joinedRoomDto.timeline()))
+        .flatMap(timelineDto -> Optional.ofNullable(timelineDto.events()))
+        .orElseGet(List::of)
+        .forEach(
+            eventDto -> {
+              synchronizeClientEvent(room, eventDto);
+              if (eventNotifier != null) {
+                eventNotifier.collectTimelineEvent(room, eventDto);
+              }
+            });
+
+    synchronizationNanos += System.nanoTime() - start;
+  }
+
+  public void synchronizeLeftRoom(
+      String rawRoomId, LeftRoomDto roomDto, MatrixEventNotifier eventNotifier) {
+
+    final var start = System.nanoTime();
+    final var roomId = MatrixRoomId.from(rawRoomId).orElseThrow(IllegalStateException::new);
+    removeFromJoinedRoomsIfExisting(roomId, eventNotifier);
+
+    if (eventNotifier != null) {
+      eventNotifier.collectSelfLeave(roomId);
     }
+
+    synchronizationNanos += System.nanoTime() - start;
   }
 
   private void synchronizeClientEvent(MatrixRoom room, ClientEventDto event) {
 
-    final var sender = MatrixUserId.from(event.sender()).orElseThrow(IllegalStateException::new);
-
-    try {
-      switch (event.type()) {
-        case RoomNameEventContentDto.TYPE ->
-            handleRoomNameEvent(
-                room, objectMapper.treeToValue(event.content(), RoomNameEventContentDto.class));
-        case CanonicalAliasEventContentDto.TYPE ->
-            handleCanonicalAliasEvent(
-                room,
-                objectMapper.treeToValue(event.content(), CanonicalAliasEventContentDto.class));
-        case MemberEventContentDto.TYPE ->
-            handleMemberEvent(
-                room,
-                sender,
-                objectMapper.treeToValue(event.content(), MemberEventContentDto.class));
-        default -> {
-          // Ignore other events
-        }
-      }
-    } catch (JsonProcessingException e) {
-      throw new RuntimeException(e);
-    }
+    processedEventCount++;
+    synchronizeEventContent(room, event.sender(), event.content());
   }
 
   private void synchronizeStrippedEvent(MatrixRoom room, StrippedStateEventDto event) {
 
-    final var sender = MatrixUserId.from(event.sender()).orElseThrow(IllegalStateException::new);
-
-    try {
-      switch (event.type()) {
-        case RoomNameEventContentDto.TYPE ->
-            handleRoomNameEvent(
-                room, objectMapper.treeToValue(event.content(), RoomNameEventContentDto.class));
-        case CanonicalAliasEventContentDto.TYPE ->
-            handleCanonicalAliasEvent(
-                room,
-                objectMapper.treeToValue(event.content(), CanonicalAliasEventContentDto.class));
-        case MemberEventContentDto.TYPE ->
-            handleMemberEvent(
-                room,
-                sender,
-                objectMapper.treeToValue(event.content(), MemberEventContentDto.class));
-        default -> {
-          // Ignore other events
-        }
+    processedEventCount++;
+    synchronizeEventContent(room, event.sender(), event.content());
+  }
+
+  private void synchronizeEventContent(
+      MatrixRoom room, String rawSender, EventContentDto eventContent) {
+
+    final var sender = MatrixUserId.from(rawSender).orElseThrow(IllegalStateException::new);
+
+    switch (eventContent) {
+      case RoomNameEventContentDto content -> handleRoomNameEvent(room, content);
+      case CanonicalAliasEventContentDto content -> handleCanonicalAliasEvent(room, content);
+      case MemberEventContentDto content -> handleMemberEvent(room, sender, content);
+      case null, default -> {
+        // Ignore other events
       }
-    } catch (JsonProcessingException e) {
-      throw new RuntimeException(e);
+    }
+  }
+
+  private void synchronizeJoinedMemberCount(MatrixRoom room, int joinedMemberCount) {
+
+    final var previousJoinedMemberCount = room.getJoinedMemberCount();
+    room.setJoinedMemberCount(joinedMemberCount);
+    if (previousJoinedMemberCount != joinedMemberCount) {
+      markRoomChanged(room.getId());
     }
   }
 
   private void handleRoomNameEvent(MatrixRoom room, RoomNameEventContentDto content) {
 
-    room.setName(content.name());
+    if (!Objects.equals(room.getName().orElse(null), content.name())) {
+      room.setName(content.name());
+      markRoomChanged(room.getId());
+    }
   }
 
   private void handleCanonicalAliasEvent(MatrixRoom room, CanonicalAliasEventContentDto content) {
@@ -150,7 +238,10 @@ public class MatrixStateSynchronizer {
     if (content.alias() != null) {
       final var newCanonicalAlias =
           MatrixRoomAlias.from(content.alias()).orElseThrow(IllegalStateException::new);
-      room.setCanonicalAlias(newCanonicalAlias);
+      if (!room.getCanonicalAlias().equals(Optional.of(newCanonicalAlias))) {
+        state.updateCanonicalAlias(room, newCanonicalAlias);
+        markRoomChanged(room.getId());
+      }
     }
   }
 
@@ -158,53 +249,104 @@ public class MatrixStateSynchronizer {
       MatrixRoom room, MatrixUserId sender, MemberEventContentDto content) {
 
     if (content.membership() == MembershipStateDto.JOIN) {
+      final var maybeExistingUser = room.findSyncedUserInRoomById(sender);
+      final var displayNameChanged =
+          content.displayName() != null
+              && !maybeExistingUser
+                  .flatMap(MatrixUser::getDisplayName)
+                  .equals(Optional.of(content.displayName()));
+      if (maybeExistingUser.isPresent() && !displayNameChanged) {
+        return;
+      }
+
       final var user = getOrCreateUserInRoom(room, sender);
       if (content.displayName() != null) {
         user.setDisplayName(content.displayName());
       }
+      markRoomChanged(room.getId());
     } else if (content.membership() == MembershipStateDto.LEAVE
         || content.membership() == MembershipStateDto.BAN) {
-      room.getRoomUsers().removeIf(user -> user.getId().equals(sender));
+      if (room.removeUser(sender).isPresent()) {
+        markRoomChanged(room.getId());
+      }
     }
   }
 
-  private static MatrixRoom getOrCreateRoom(List<MatrixRoom> rooms, MatrixRoomId roomId) {
+  private MatrixRoom getOrCreateRoom(
+      MatrixRoomId roomId,
+      Function<MatrixRoomId, Optional<MatrixRoom>> findRoom,
+      Consumer<MatrixRoom> addRoom) {
 
-    final var maybeExistingRoom =
-        rooms.stream().filter(room -> room.getId().equals(roomId)).findAny();
+    final var maybeExistingRoom = findRoom.apply(roomId);
 
     if (maybeExistingRoom.isPresent()) {
       return maybeExistingRoom.get();
     }
 
     final var newRoom = MatrixRoom.from(roomId).orElseThrow(IllegalStateException::new);
-    rooms.add(newRoom);
+    addRoom.accept(newRoom);
+    markRoomChanged(roomId);
 
     return newRoom;
   }
 
+  private void markRoomChanged(MatrixRoomId roomId) {
+
+    changedRoomIds.add(roomId);
+  }
+
+  private void addJoinedRoom(MatrixRoom room) {
+
+    room.setMemberLoader(memberLoader);
+    state.addJoinedRoom(room);
+  }
+
   private static MatrixUser getOrCreateUserInRoom(MatrixRoom room, MatrixUserId userId) {
 
-    final var maybeExistingUser =
-        room.getRoomUsers().stream().filter(user -> user.getId().equals(userId)).findAny();
+    final var maybeExistingUser = room.findSyncedUserInRoomById(userId);
 
-    if (maybeExistingUser.isPresent()) {
+    if (maybeExistingUser.isPresent() && !maybeExistingUser.get().isReadOnly()) {
       return maybeExistingUser.get();
     }
 
+    if (maybeExistingUser.isPresent()) {
+      // Shared with a published snapshot of the state, so it is replaced instead of changed
+      final var userCopy = maybeExistingUser.get().toWritableCopy();
+      room.addUser(userCopy);
+
+      return userCopy;
+    }
+
     final var newUser = MatrixUser.from(userId).orElseThrow(IllegalStateException::new);
-    room.getRoomUsers().add(newUser);
+    room.addUser(newUser);
 
     return newUser;
   }
 
-  private void removeFromInvitedRoomsIfExisting(MatrixRoomId roomId) {
+  private void removeFromInvitedRoomsIfExisting(
+      MatrixRoomId roomId, MatrixEventNotifier eventNotifier) {
 
-    state.getInvitedRooms().removeIf(room -> room.getId().equals(roomId));
+    if (state.removeInvitedRoom(roomId).isPresent()) {
+      markRoomChanged(roomId);
+      discardCollectedNotifications(roomId, eventNotifier);
+    }
   }
 
-  private void removeFromJoinedRoomsIfExisting(MatrixRoomId roomId) {
+  private void removeFromJoinedRoomsIfExisting(
+      MatrixRoomId roomId, MatrixEventNotifier eventNotifier) {
 
-    state.getJoinedRooms().removeIf(room -> room.getId().equals(roomId));
+    if (state.removeJoinedRoom(roomId).isPresent()) {
+      markRoomChanged(roomId);
+      discardCollectedNotifications(roomId, eventNotifier);
+    }
+  }
+
+  private static void discardCollectedNotifications(
+      MatrixRoomId roomId, MatrixEventNotifier eventNotifier) {
+
+    // Notifications are only sent about rooms that are still part of the state after the batch
+    if (eventNotifier != null) {
+      eventNotifier.discardCollected(roomId);
+    }
   }
 }
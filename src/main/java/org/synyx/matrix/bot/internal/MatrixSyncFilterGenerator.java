@@ -0,0 +1,103 @@
+package org.synyx.matrix.bot.internal;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import org.synyx.matrix.bot.MatrixEventInterests;
+import org.synyx.matrix.bot.MatrixSyncFilter;
+import org.synyx.matrix.bot.domain.MatrixRoomId;
+import org.synyx.matrix.bot.domain.MatrixUserId;
+import org.synyx.matrix.bot.internal.api.dto.EventFilterDto;
+import org.synyx.matrix.bot.internal.api.dto.FilterDto;
+import org.synyx.matrix.bot.internal.api.dto.RoomEventFilterDto;
+import org.synyx.matrix.bot.internal.api.dto.RoomFilterDto;
+import org.synyx.matrix.bot.internal.api.dto.event.CanonicalAliasEventContentDto;
+import org.synyx.matrix.bot.internal.api.dto.event.MemberEventContentDto;
+import org.synyx.matrix.bot.internal.api.dto.event.MessageEventContentDto;
+import org.synyx.matrix.bot.internal.api.dto.event.RoomNameEventContentDto;
+
+public class MatrixSyncFilterGenerator {
+
+  /** The state event types {@link MatrixStateSynchronizer} keeps track of. */
+  private static final List<String> SYNCHRONIZED_EVENT_TYPES =
+      List.of(
+          RoomNameEventContentDto.TYPE,
+          CanonicalAliasEventContentDto.TYPE,
+          MemberEventContentDto.TYPE);
+
+  private static final List<String> ALL_EVENT_TYPES = List.of("*");
+
+  private MatrixSyncFilterGenerator() {}
+
+  /**
+   * Generates the filter to upload.
+   *
+   * @param syncFilter The filter set on the client.
+   * @param interests The interests of the registered event consumer, or {@code null} if none is
+   *     registered.
+   */
+  public static FilterDto generate(MatrixSyncFilter syncFilter, MatrixEventInterests interests) {
+
+    final var stateEventTypes = new LinkedHashSet<>(SYNCHRONIZED_EVENT_TYPES);
+    stateEventTypes.addAll(syncFilter.getStateEventTypes());
+
+    final var timelineEventTypes = new LinkedHashSet<>(SYNCHRONIZED_EVENT_TYPES);
+    // Member events are synchronized anyway, so only messages depend on the interests
+    if (interests != null && interests.includes(MatrixEventInterests.Callback.MESSAGE)) {
+      timelineEventTypes.add(MessageEventContentDto.TYPE);
+    }
+    timelineEventTypes.addAll(syncFilter.getTimelineEventTypes());
+
+    final var roomFilter =
+        new RoomFilterDto(
+            syncFilter.isAccountDataIncluded() ? null : excludeAllRoomEvents(),
+            syncFilter.isEphemeralIncluded() ? null : excludeAllRoomEvents(),
+            new RoomEventFilterDto(
+                new ArrayList<>(stateEventTypes),
+                null,
+                null,
+                syncFilter.isMembersLazyLoaded() ? true : null,
+                null,
+                null),
+            new RoomEventFilterDto(
+                new ArrayList<>(timelineEventTypes),
+                null,
+                syncFilter.getTimelineLimit().orElse(null),
+                null,
+                pushedInterest(
+                    interests, MatrixEventInterests::getRoomIds, MatrixRoomId::getFormatted),
+                pushedInterest(
+                    interests, MatrixEventInterests::getSenderIds, MatrixUserId::getFormatted)));
+
+    return new FilterDto(
+        syncFilter.isAccountDataIncluded() ? null : excludeAllEvents(),
+        syncFilter.isPresenceIncluded() ? null : excludeAllEvents(),
+        roomFilter);
+  }
+
+  private static EventFilterDto excludeAllEvents() {
+
+    return new EventFilterDto(null, ALL_EVENT_TYPES);
+  }
+
+  private static RoomEventFilterDto excludeAllRoomEvents() {
+
+    return new RoomEventFilterDto(null, ALL_EVENT_TYPES, null, null, null, null);
+  }
+
+  private static <T> List<String> pushedInterest(
+      MatrixEventInterests interests,
+      Function<MatrixEventInterests, Set<T>> getInterest,
+      Function<T, String> format) {
+
+    return Optional.ofNullable(interests)
+        .filter(MatrixEventInterests::isPushedToSyncFilter)
+        .map(getInterest)
+        .filter(interest -> !interest.isEmpty())
+        .map(interest -> interest.stream().map(format).sorted().toList())
+        .orElse(null);
+  }
+}
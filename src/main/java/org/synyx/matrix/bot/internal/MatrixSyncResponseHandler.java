@@ -0,0 +1,58 @@
+package org.synyx.matrix.bot.internal;
+
+import org.synyx.matrix.bot.MatrixState;
+import org.synyx.matrix.bot.internal.api.SyncResponseHandler;
+import org.synyx.matrix.bot.internal.api.dto.InvitedRoomDto;
+import org.synyx.matrix.bot.internal.api.dto.JoinedRoomDto;
+import org.synyx.matrix.bot.internal.api.dto.LeftRoomDto;
+
+/**
+ * Applies each room of a streamed sync response to the state and notifies about it right away, so
+ * the room can be discarded before the next one is parsed. Notifications dispatched concurrently
+ * are only collected, they have to be sent once the whole response has been applied.
+ */
+public class MatrixSyncResponseHandler implements SyncResponseHandler {
+
+  private final MatrixStateSynchronizer stateSynchronizer;
+  private final MatrixEventNotifier eventNotifier;
+  private final MatrixState state;
+
+  public MatrixSyncResponseHandler(
+      MatrixStateSynchronizer stateSynchronizer,
+      MatrixEventNotifier eventNotifier,
+      MatrixState state) {
+
+    this.stateSynchronizer = stateSynchronizer;
+    this.eventNotifier = eventNotifier;
+    this.state = state;
+  }
+
+  @Override
+  public void onInvitedRoom(String roomId, InvitedRoomDto room) throws InterruptedException {
+
+    stateSynchronizer.synchronizeInvitedRoom(roomId, room, eventNotifier);
+    notifyCollected();
+  }
+
+  @Override
+  public void onJoinedRoom(String roomId, JoinedRoomDto room) throws InterruptedException {
+
+    stateSynchronizer.synchronizeJoinedRoom(roomId, room, eventNotifier);
+    notifyCollected();
+  }
+
+  @Override
+  public void onLeftRoom(String roomId, LeftRoomDto room) throws InterruptedException {
+
+    stateSynchronizer.synchronizeLeftRoom(roomId, room, eventNotifier);
+    notifyCollected();
+  }
+
+  private void notifyCollected() throws InterruptedException {
+
+    // Concurrent callbacks need a snapshot of the state, which is published once per response
+    if (eventNotifier != null && !eventNotifier.isDispatchedConcurrently()) {
+      eventNotifier.notifyCollected(state);
+    }
+  }
+}
@@ -0,0 +1,55 @@
+package org.synyx.matrix.bot.internal.api;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+class CountingInputStream extends FilterInputStream {
+
+  private long count;
+
+  CountingInputStream(InputStream in) {
+
+    super(in);
+    this.count = 0;
+  }
+
+  long getCount() {
+
+    return count;
+  }
+
+  @Override
+  public int read() throws IOException {
+
+    final var result = super.read();
+    if (result >= 0) {
+      count++;
+    }
+    return result;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+
+    final var result = super.read(b, off, len);
+    if (result > 0) {
+      count += result;
+    }
+    return result;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+
+    final var result = super.skip(n);
+    count += result;
+    return result;
+  }
+
+  @Override
+  public boolean markSupported() {
+
+    return false;
+  }
+}
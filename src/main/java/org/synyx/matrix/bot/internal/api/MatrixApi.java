@@ -2,7 +2,9 @@ package org.synyx.matrix.bot.internal.api;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
@@ -11,33 +13,68 @@ import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
-import java.time.temporal.ChronoUnit;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
-import java.util.UUID;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 import org.synyx.matrix.bot.MatrixCommunicationException;
+import org.synyx.matrix.bot.MatrixMetricsListener;
 import org.synyx.matrix.bot.domain.MatrixUserId;
 import org.synyx.matrix.bot.internal.MatrixAuthentication;
 import org.synyx.matrix.bot.internal.api.dto.EventIdResponseDto;
+import org.synyx.matrix.bot.internal.api.dto.FilterDto;
+import org.synyx.matrix.bot.internal.api.dto.FilterIdResponseDto;
+import org.synyx.matrix.bot.internal.api.dto.JoinedMembersResponseDto;
+import org.synyx.matrix.bot.internal.api.dto.MatrixErrorDto;
 import org.synyx.matrix.bot.internal.api.dto.MatrixIdentifierDto;
 import org.synyx.matrix.bot.internal.api.dto.MatrixLoginDto;
 import org.synyx.matrix.bot.internal.api.dto.MatrixLoginResponseDto;
+import org.synyx.matrix.bot.internal.api.dto.MatrixRefreshDto;
+import org.synyx.matrix.bot.internal.api.dto.MatrixRefreshResponseDto;
 import org.synyx.matrix.bot.internal.api.dto.RoomJoinPayloadDto;
 import org.synyx.matrix.bot.internal.api.dto.RoomLeavePayloadDto;
+import org.synyx.matrix.bot.internal.api.dto.RoomMemberDto;
 import org.synyx.matrix.bot.internal.api.dto.SyncResponseDto;
 
 public class MatrixApi {
 
-  private static final Duration SYNC_TIMEOUT = Duration.of(30, ChronoUnit.SECONDS);
-  private static final Duration DEFAULT_REQUEST_TIMEOUT = Duration.of(30, ChronoUnit.SECONDS);
-  private static final Duration SYNC_REQUEST_TIMEOUT =
-      Duration.of((long) (SYNC_TIMEOUT.toMillis() * 1.5D), ChronoUnit.MILLIS);
+  private static final int DECOMPRESSION_BUFFER_SIZE = 8192;
+  private static final int UNAUTHORIZED = 401;
+  private static final String AUTHORIZATION = "Authorization";
+  private static final Executor TOKEN_REFRESH_EXECUTOR =
+      runnable -> Thread.ofVirtual().name("matrix-token-refresh").start(runnable);
 
   private final URI baseUri;
   private final MatrixAuthentication authentication;
   private final HttpClient httpClient;
+  private final boolean ownsHttpClient;
+  private final Duration syncTimeout;
+  private final Duration syncRequestTimeout;
+  private final Duration requestTimeout;
+  private final boolean compressSyncResponses;
+  private final Set<CompletableFuture<?>> pendingRequests;
   private final ObjectMapper objectMapper;
+  private final SyncResponseParser syncResponseParser;
+  private final ReentrantLock tokenRefreshLock;
+  private MatrixMetricsListener metricsListener;
+  private Runnable tokenRefreshListener;
 
-  public MatrixApi(String url, MatrixAuthentication authentication, ObjectMapper objectMapper) {
+  public MatrixApi(
+      String url,
+      MatrixAuthentication authentication,
+      ObjectMapper objectMapper,
+      MatrixHttpTransport transport) {
 
     try {
       this.baseUri = new URI(url);
@@ -45,32 +82,65 @@ public class MatrixApi {
       throw new MatrixCommunicationException("Invalid matrix URI", e);
     }
     this.authentication = authentication;
-    this.httpClient = HttpClient.newHttpClient();
+    this.httpClient = transport.httpClient();
+    this.ownsHttpClient = transport.ownsHttpClient();
+    this.syncTimeout = transport.syncTimeout();
+    this.syncRequestTimeout = transport.syncRequestTimeout();
+    this.requestTimeout = transport.requestTimeout();
+    this.compressSyncResponses = transport.compressSyncResponses();
+    this.pendingRequests = ConcurrentHashMap.newKeySet();
     this.objectMapper = objectMapper;
+    this.syncResponseParser = new SyncResponseParser(objectMapper);
+    this.tokenRefreshLock = new ReentrantLock();
+    this.metricsListener = MatrixMetricsListener.NONE;
+    this.tokenRefreshListener = () -> {};
   }
 
+  public void setMetricsListener(MatrixMetricsListener metricsListener) {
+
+    this.metricsListener = metricsListener;
+  }
+
+  /** Sets the listener called after the access token has been refreshed, from any thread. */
+  public void setTokenRefreshListener(Runnable tokenRefreshListener) {
+
+    this.tokenRefreshListener = tokenRefreshListener;
+  }
+
+  /**
+   * Aborts all running requests. A client created for this api is shut down, a shared client is
+   * left running for its other users.
+   */
   public void terminateOpenConnections() {
 
-    httpClient.shutdownNow();
+    if (ownsHttpClient) {
+      httpClient.shutdownNow();
+      return;
+    }
+
+    pendingRequests.forEach(request -> request.cancel(true));
   }
 
   public void login() throws IOException, InterruptedException, MatrixApiException {
 
     final var response =
-        httpClient.send(
+        send(
+            "login",
             post(
                     "/_matrix/client/v3/login",
                     null,
                     new MatrixLoginDto(
                         new MatrixIdentifierDto("m.id.user", authentication.getUsername()),
                         authentication.getPassword(),
-                        "m.login.password"))
+                        "m.login.password",
+                        authentication.getDeviceId().orElse(null),
+                        true))
                 .build(),
-            jsonBodyHandler(MatrixLoginResponseDto.class));
+            HttpResponse.BodyHandlers.ofByteArray());
 
     expected2xx("login", response);
 
-    final var body = response.body();
+    final var body = objectMapper.readValue(response.body(), MatrixLoginResponseDto.class);
     if (body == null) {
       throw new MatrixApiException("Received no login data", response);
     }
@@ -78,79 +148,309 @@ public class MatrixApi {
     final var userId = MatrixUserId.from(body.userId()).orElseThrow(IllegalStateException::new);
     authentication.setUserId(userId);
     authentication.setBearerToken(body.accessToken());
+    authentication.setRefreshToken(body.refreshToken());
+    authentication.setDeviceId(body.deviceId());
   }
 
-  public Optional<SyncResponseDto> sync(String since)
-      throws IOException, InterruptedException, MatrixApiException {
+  /**
+   * Exchanges the refresh token for a new access token. The current access token is kept for other
+   * requests until the new one has been received, but not sent on this endpoint.
+   */
+  public void refresh() throws IOException, InterruptedException, MatrixApiException {
+
+    final var refreshToken =
+        authentication
+            .getRefreshToken()
+            .orElseThrow(() -> new IllegalStateException("No refresh token available"));
 
     final var response =
-        httpClient.send(
-            get(
-                    "/_matrix/client/v3/sync",
-                    "timeout=%d&since=%s"
-                        .formatted(
-                            SYNC_TIMEOUT.toMillis(),
-                            URLEncoder.encode(since, StandardCharsets.UTF_8)))
-                .timeout(SYNC_REQUEST_TIMEOUT)
-                .build(),
-            jsonBodyHandler(SyncResponseDto.class));
+        send(
+            "refreshing token",
+            withoutAuthorization(
+                post("/_matrix/client/v3/refresh", null, new MatrixRefreshDto(refreshToken))
+                    .build()),
+            HttpResponse.BodyHandlers.ofByteArray());
 
-    expected2xx("syncing", response);
+    expected2xx("refreshing token", response);
 
-    return Optional.ofNullable(response.body());
+    final var body = objectMapper.readValue(response.body(), MatrixRefreshResponseDto.class);
+    authentication.setBearerToken(body.accessToken());
+    if (body.refreshToken() != null) {
+      authentication.setRefreshToken(body.refreshToken());
+    }
   }
 
-  public Optional<SyncResponseDto> syncFull()
+  public Optional<SyncResponseDto> sync(String since, String filterId)
       throws IOException, InterruptedException, MatrixApiException {
 
-    final var response =
-        httpClient.send(
-            get("/_matrix/client/v3/sync", "timeout=0").build(),
-            jsonBodyHandler(SyncResponseDto.class));
+    return readSyncResponse("syncing", partialSyncRequest(since, filterId));
+  }
+
+  public CompletableFuture<Optional<SyncResponseDto>> syncAsync(String since, String filterId) {
+
+    final var start = System.nanoTime();
+    final var pendingResponse =
+        sendAsync(
+            "syncing",
+            partialSyncRequest(since, filterId),
+            HttpResponse.BodyHandlers.ofByteArray());
+
+    return cancellingSource(
+        pendingResponse.thenApply(
+            response -> {
+              try {
+                return readSyncResponseBody(response, System.nanoTime() - start);
+              } catch (IOException e) {
+                throw new CompletionException(e);
+              }
+            }),
+        pendingResponse);
+  }
 
-    expected2xx("full syncing", response);
+  public Optional<String> syncStreaming(String since, String filterId, SyncResponseHandler handler)
+      throws IOException, InterruptedException, MatrixApiException {
 
-    return Optional.ofNullable(response.body());
+    return parseSyncResponse("syncing", partialSyncRequest(since, filterId), handler);
   }
 
-  public String sendEvent(String roomId, String eventType, Object event)
+  public Optional<SyncResponseDto> syncFull(String filterId)
       throws IOException, InterruptedException, MatrixApiException {
 
-    final var uri =
-        "/_matrix/client/v3/rooms/%s/send/%s/%s".formatted(roomId, eventType, UUID.randomUUID());
+    return readSyncResponse("full syncing", fullSyncRequest(filterId));
+  }
 
-    final var response =
-        httpClient.send(put(uri, null, event).build(), jsonBodyHandler(EventIdResponseDto.class));
+  public Optional<String> syncFullStreaming(String filterId, SyncResponseHandler handler)
+      throws IOException, InterruptedException, MatrixApiException {
 
-    expected2xx("sending event", response);
+    return parseSyncResponse("full syncing", fullSyncRequest(filterId), handler);
+  }
 
-    return response.body().eventId();
+  public CompletableFuture<String> sendEventAsync(
+      String roomId, String eventType, String transactionId, Object event) {
+
+    return sendAsync(
+            "sending event",
+            sendEventRequest(roomId, eventType, transactionId, event),
+            EventIdResponseDto.class)
+        .thenApply(EventIdResponseDto::eventId);
   }
 
   public void joinRoom(String roomId, String reason)
       throws IOException, InterruptedException, MatrixApiException {
 
-    final var uri = "/_matrix/client/v3/rooms/%s/join".formatted(roomId);
     final var response =
-        httpClient.send(
-            post(uri, null, new RoomJoinPayloadDto(reason)).build(),
-            HttpResponse.BodyHandlers.ofString());
+        send("joining room", joinRoomRequest(roomId, reason), HttpResponse.BodyHandlers.ofString());
 
     expected2xx("joining room", response);
   }
 
+  public CompletableFuture<Void> joinRoomAsync(String roomId, String reason) {
+
+    return sendAsync(
+            "joining room", joinRoomRequest(roomId, reason), HttpResponse.BodyHandlers.discarding())
+        .thenApply(body -> null);
+  }
+
   public void leaveRoom(String roomId, String reason)
       throws IOException, InterruptedException, MatrixApiException {
 
-    final var uri = "/_matrix/client/v3/rooms/%s/leave".formatted(roomId);
     final var response =
-        httpClient.send(
-            post(uri, null, new RoomLeavePayloadDto(reason)).build(),
-            HttpResponse.BodyHandlers.ofString());
+        send(
+            "leaving room", leaveRoomRequest(roomId, reason), HttpResponse.BodyHandlers.ofString());
 
     expected2xx("leaving room", response);
   }
 
+  public CompletableFuture<Void> leaveRoomAsync(String roomId, String reason) {
+
+    return sendAsync(
+            "leaving room",
+            leaveRoomRequest(roomId, reason),
+            HttpResponse.BodyHandlers.discarding())
+        .thenApply(body -> null);
+  }
+
+  public Map<String, RoomMemberDto> getJoinedMembers(String roomId)
+      throws IOException, InterruptedException, MatrixApiException {
+
+    final var uri = "/_matrix/client/v3/rooms/%s/joined_members".formatted(roomId);
+
+    final var response =
+        send("loading members", get(uri, null).build(), HttpResponse.BodyHandlers.ofByteArray());
+
+    expected2xx("loading members", response);
+
+    return Optional.ofNullable(
+            objectMapper.readValue(response.body(), JoinedMembersResponseDto.class).joined())
+        .orElseGet(Map::of);
+  }
+
+  public String uploadFilter(FilterDto filter)
+      throws IOException, InterruptedException, MatrixApiException {
+
+    final var userId =
+        authentication
+            .getUserId()
+            .orElseThrow(() -> new IllegalStateException("Cannot upload filter before login"));
+    final var uri = "/_matrix/client/v3/user/%s/filter".formatted(userId.getFormatted());
+
+    final var response =
+        send(
+            "uploading filter",
+            post(uri, null, filter).build(),
+            HttpResponse.BodyHandlers.ofByteArray());
+
+    expected2xx("uploading filter", response);
+
+    return objectMapper.readValue(response.body(), FilterIdResponseDto.class).filterId();
+  }
+
+  private Optional<SyncResponseDto> readSyncResponse(String performedAction, HttpRequest request)
+      throws IOException, InterruptedException, MatrixApiException {
+
+    final var start = System.nanoTime();
+    final var response = send(performedAction, request, HttpResponse.BodyHandlers.ofByteArray());
+
+    expected2xx(performedAction, response);
+
+    return readSyncResponseBody(response, System.nanoTime() - start);
+  }
+
+  private Optional<SyncResponseDto> readSyncResponseBody(
+      HttpResponse<byte[]> response, long latencyNanos) throws IOException {
+
+    final var bytes = response.body();
+    if (!isCompressed(response)) {
+      metricsListener.onSyncResponse(latencyNanos, bytes.length);
+      return Optional.ofNullable(objectMapper.readValue(bytes, SyncResponseDto.class));
+    }
+
+    // Only the compressed body is buffered, it is decompressed while being parsed
+    final var compressedBody = new ByteArrayInputStream(bytes);
+    try (var body = new CountingInputStream(decompress(response, compressedBody))) {
+      final var syncResponse = objectMapper.readValue(body, SyncResponseDto.class);
+
+      metricsListener.onSyncResponse(latencyNanos, body.getCount());
+      metricsListener.onSyncResponseDecompressed(bytes.length, body.getCount());
+
+      return Optional.ofNullable(syncResponse);
+    }
+  }
+
+  private Optional<String> parseSyncResponse(
+      String performedAction, HttpRequest request, SyncResponseHandler handler)
+      throws IOException, InterruptedException, MatrixApiException {
+
+    final var start = System.nanoTime();
+    final var response =
+        send(performedAction, request, HttpResponse.BodyHandlers.ofInputStream());
+
+    try (var transferredBody = new CountingInputStream(response.body())) {
+      expected2xx(performedAction, response);
+
+      try (var body = new CountingInputStream(decompress(response, transferredBody))) {
+        final var maybeNextBatch = syncResponseParser.parse(body, handler);
+
+        metricsListener.onSyncResponse(System.nanoTime() - start, body.getCount());
+        if (isCompressed(response)) {
+          metricsListener.onSyncResponseDecompressed(transferredBody.getCount(), body.getCount());
+        }
+
+        return maybeNextBatch;
+      }
+    }
+  }
+
+  private static boolean isCompressed(HttpResponse<?> response) {
+
+    return !"identity".equals(contentEncoding(response));
+  }
+
+  private static String contentEncoding(HttpResponse<?> response) {
+
+    return response
+        .headers()
+        .firstValue("Content-Encoding")
+        .map(encoding -> encoding.trim().toLowerCase(Locale.ROOT))
+        .filter(encoding -> !encoding.isEmpty())
+        .orElse("identity");
+  }
+
+  private static InputStream decompress(HttpResponse<?> response, InputStream body)
+      throws IOException {
+
+    return switch (contentEncoding(response)) {
+      case "identity" -> body;
+      case "gzip", "x-gzip" -> new GZIPInputStream(body, DECOMPRESSION_BUFFER_SIZE);
+      case "deflate" -> new InflaterInputStream(body, new Inflater(), DECOMPRESSION_BUFFER_SIZE);
+      default ->
+          throw new IOException(
+              "Unsupported content encoding %s".formatted(contentEncoding(response)));
+    };
+  }
+
+  private HttpRequest sendEventRequest(
+      String roomId, String eventType, String transactionId, Object event) {
+
+    final var uri =
+        "/_matrix/client/v3/rooms/%s/send/%s/%s".formatted(roomId, eventType, transactionId);
+
+    return put(uri, null, event).build();
+  }
+
+  private HttpRequest joinRoomRequest(String roomId, String reason) {
+
+    final var uri = "/_matrix/client/v3/rooms/%s/join".formatted(roomId);
+
+    return post(uri, null, new RoomJoinPayloadDto(reason)).build();
+  }
+
+  private HttpRequest leaveRoomRequest(String roomId, String reason) {
+
+    final var uri = "/_matrix/client/v3/rooms/%s/leave".formatted(roomId);
+
+    return post(uri, null, new RoomLeavePayloadDto(reason)).build();
+  }
+
+  private HttpRequest partialSyncRequest(String since, String filterId) {
+
+    return acceptingCompression(
+            get(
+                "/_matrix/client/v3/sync",
+                withFilter(
+                    "timeout=%d&since=%s"
+                        .formatted(
+                            syncTimeout.toMillis(),
+                            URLEncoder.encode(since, StandardCharsets.UTF_8)),
+                    filterId)))
+        .timeout(syncRequestTimeout)
+        .build();
+  }
+
+  private HttpRequest fullSyncRequest(String filterId) {
+
+    return acceptingCompression(get("/_matrix/client/v3/sync", withFilter("timeout=0", filterId)))
+        .build();
+  }
+
+  private HttpRequest.Builder acceptingCompression(HttpRequest.Builder builder) {
+
+    if (compressSyncResponses) {
+      builder.header("Accept-Encoding", "gzip, deflate");
+    }
+
+    return builder;
+  }
+
+  private static String withFilter(String query, String filterId) {
+
+    if (filterId == null) {
+      return query;
+    }
+
+    return "%s&filter=%s".formatted(query, URLEncoder.encode(filterId, StandardCharsets.UTF_8));
+  }
+
   private HttpRequest.Builder get(String url, String query) {
 
     return request(url, query).GET();
@@ -192,29 +492,264 @@ public class MatrixApi {
                       url,
                       query,
                       null))
-              .timeout(DEFAULT_REQUEST_TIMEOUT);
+              .timeout(requestTimeout);
     } catch (URISyntaxException e) {
       throw new MatrixCommunicationException("Invalid URI when trying to make API request", e);
     }
 
     authentication
         .getBearerToken()
-        .ifPresent(token -> builder.header("Authorization", "Bearer %s".formatted(token)));
+        .ifPresent(token -> builder.header(AUTHORIZATION, bearer(token)));
 
     return builder;
   }
 
-  private <T> HttpResponse.BodyHandler<T> jsonBodyHandler(Class<T> clazz) {
+  /**
+   * Sends a request. If the server rejects the access token, it is refreshed and the request is
+   * sent once more with the new token.
+   */
+  private <T> HttpResponse<T> send(
+      String performedAction, HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler)
+      throws IOException, InterruptedException {
+
+    final var response = exchange(performedAction, request, bodyHandler);
+    if (!isRejectedAccessToken(request, response) || !refreshRejectedAccessToken(request)) {
+      return response;
+    }
+
+    discardBody(response);
+
+    return exchange(performedAction, withCurrentAuthorization(request), bodyHandler);
+  }
+
+  private <T> HttpResponse<T> exchange(
+      String performedAction, HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler)
+      throws IOException, InterruptedException {
+
+    final var start = System.nanoTime();
+    final var pendingResponse = track(httpClient.sendAsync(request, bodyHandler));
+    try {
+      final var response = pendingResponse.get();
+      metricsListener.onRequest(performedAction, response.statusCode(), System.nanoTime() - start);
+
+      return response;
+    } catch (InterruptedException e) {
+      pendingResponse.cancel(true);
+      throw e;
+    } catch (ExecutionException | CancellationException e) {
+      metricsListener.onRequest(performedAction, -1, System.nanoTime() - start);
+      if (e.getCause() instanceof IOException cause) {
+        throw cause;
+      }
+      throw new IOException("Request failed when %s".formatted(performedAction), e);
+    }
+  }
+
+  private <T> CompletableFuture<T> track(CompletableFuture<T> pendingRequest) {
+
+    pendingRequests.add(pendingRequest);
+    pendingRequest.whenComplete((result, e) -> pendingRequests.remove(pendingRequest));
+
+    return pendingRequest;
+  }
+
+  private <T> CompletableFuture<HttpResponse<T>> sendAsync(
+      String performedAction, HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler) {
+
+    final var start = System.nanoTime();
+    final var pendingResponse = exchangeAsync(request, bodyHandler);
+
+    return cancellingSource(
+        pendingResponse
+            .whenComplete(
+                (response, e) ->
+                    metricsListener.onRequest(
+                        performedAction,
+                        response != null ? response.statusCode() : -1,
+                        System.nanoTime() - start))
+            .thenApply(
+                response -> {
+                  try {
+                    expected2xx(performedAction, response);
+                  } catch (MatrixApiException e) {
+                    throw new CompletionException(e);
+                  }
+
+                  return response;
+                }),
+        pendingResponse);
+  }
+
+  /**
+   * Sends a request without blocking. If the server rejects the access token, it is refreshed and
+   * the request is sent once more with the new token. Cancelling the returned future cancels the
+   * exchange currently running.
+   */
+  private <T> CompletableFuture<HttpResponse<T>> exchangeAsync(
+      HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler) {
+
+    final var currentExchange =
+        new AtomicReference<CompletableFuture<HttpResponse<T>>>(
+            track(httpClient.sendAsync(request, bodyHandler)));
+
+    final var pendingResponse =
+        currentExchange
+            .get()
+            .thenCompose(
+                response -> {
+                  if (!isRejectedAccessToken(request, response)) {
+                    return CompletableFuture.completedFuture(response);
+                  }
+
+                  return CompletableFuture.supplyAsync(
+                          () -> {
+                            try {
+                              return refreshRejectedAccessToken(request);
+                            } catch (IOException e) {
+                              throw new CompletionException(e);
+                            } catch (InterruptedException e) {
+                              Thread.currentThread().interrupt();
+                              throw new CompletionException(e);
+                            }
+                          },
+                          TOKEN_REFRESH_EXECUTOR)
+                      .thenCompose(
+                          refreshed -> {
+                            if (!refreshed) {
+                              return CompletableFuture.completedFuture(response);
+                            }
+
+                            final var retry =
+                                track(
+                                    httpClient.sendAsync(
+                                        withCurrentAuthorization(request), bodyHandler));
+                            currentExchange.set(retry);
+
+                            return retry;
+                          });
+                });
+
+    pendingResponse.whenComplete(
+        (response, e) -> {
+          if (pendingResponse.isCancelled()) {
+            currentExchange.get().cancel(true);
+          }
+        });
+
+    return pendingResponse;
+  }
+
+  private static boolean isRejectedAccessToken(HttpRequest request, HttpResponse<?> response) {
+
+    return response.statusCode() == UNAUTHORIZED
+        && request.headers().firstValue(AUTHORIZATION).isPresent();
+  }
+
+  /**
+   * Refreshes the access token a request was rejected with. Requests failing concurrently share a
+   * single refresh: if another request already refreshed the token, it is used right away.
+   *
+   * @return {@code true} if the request should be sent again with the current access token, {@code
+   *     false} if there is no usable refresh token, so a new login is needed.
+   * @throws IOException If the token could not be refreshed for now, e.g. because the server is
+   *     unreachable, so the request should be retried later.
+   */
+  private boolean refreshRejectedAccessToken(HttpRequest request)
+      throws IOException, InterruptedException {
+
+    // Not synchronized, which would pin the carrier of a virtual thread while refreshing
+    tokenRefreshLock.lockInterruptibly();
+    try {
+      final var rejectedAuthorization = request.headers().firstValue(AUTHORIZATION);
+      final var currentAuthorization = authentication.getBearerToken().map(MatrixApi::bearer);
+      if (currentAuthorization.isPresent()
+          && !currentAuthorization.equals(rejectedAuthorization)) {
+        return true;
+      }
+
+      if (authentication.getRefreshToken().isEmpty()) {
+        return false;
+      }
+
+      try {
+        refresh();
+      } catch (MatrixApiException e) {
+        if (e.isRateLimited() || e.getStatusCode() >= 500) {
+          throw new IOException("Failed to refresh access token", e);
+        }
+
+        // The refresh token has been rejected as well, only logging in again helps
+        authentication.setRefreshToken(null);
+        return false;
+      }
+    } finally {
+      tokenRefreshLock.unlock();
+    }
+
+    tokenRefreshListener.run();
+
+    return true;
+  }
+
+  private HttpRequest withCurrentAuthorization(HttpRequest request) {
+
+    final var builder = HttpRequest.newBuilder(request, (name, value) -> !isAuthorization(name));
+    authentication
+        .getBearerToken()
+        .ifPresent(token -> builder.header(AUTHORIZATION, bearer(token)));
+
+    return builder.build();
+  }
+
+  private static HttpRequest withoutAuthorization(HttpRequest request) {
+
+    return HttpRequest.newBuilder(request, (name, value) -> !isAuthorization(name)).build();
+  }
+
+  private static boolean isAuthorization(String headerName) {
+
+    return AUTHORIZATION.equalsIgnoreCase(headerName);
+  }
+
+  private static String bearer(String token) {
+
+    return "Bearer %s".formatted(token);
+  }
+
+  private static void discardBody(HttpResponse<?> response) throws IOException {
 
-    return responseInfo ->
-        HttpResponse.BodySubscribers.mapping(
-            HttpResponse.BodySubscribers.ofByteArray(),
-            bytes -> {
+    if (response.body() instanceof InputStream body) {
+      body.close();
+    }
+  }
+
+  /**
+   * Cancels the source of a dependent future when the dependent future is cancelled. Cancelling a
+   * dependent stage does not reach the stage it depends on, so the exchange would keep running.
+   */
+  private static <T> CompletableFuture<T> cancellingSource(
+      CompletableFuture<T> dependent, CompletableFuture<?> source) {
+
+    dependent.whenComplete(
+        (result, e) -> {
+          if (dependent.isCancelled()) {
+            source.cancel(true);
+          }
+        });
+
+    return dependent;
+  }
+
+  private <T> CompletableFuture<T> sendAsync(
+      String performedAction, HttpRequest request, Class<T> responseClass) {
+
+    return sendAsync(performedAction, request, HttpResponse.BodyHandlers.ofByteArray())
+        .thenApply(
+            response -> {
               try {
-                return objectMapper.readValue(bytes, clazz);
+                return objectMapper.readValue(response.body(), responseClass);
               } catch (IOException e) {
-                throw new MatrixCommunicationException(
-                    "Invalid URI when trying to make API request", e);
+                throw new CompletionException(e);
               }
             });
   }
@@ -224,7 +759,25 @@ public class MatrixApi {
 
     final var statusCode = response.statusCode();
     if (statusCode < 200 || statusCode >= 300) {
-      throw new MatrixApiException(performedAction, response);
+      throw new MatrixApiException(performedAction, response, readError(response));
+    }
+  }
+
+  private MatrixErrorDto readError(HttpResponse<?> response) {
+
+    try {
+      return switch (response.body()) {
+        case byte[] bytes ->
+            objectMapper.readValue(
+                decompress(response, new ByteArrayInputStream(bytes)), MatrixErrorDto.class);
+        case String string -> objectMapper.readValue(string, MatrixErrorDto.class);
+        case InputStream inputStream ->
+            objectMapper.readValue(decompress(response, inputStream), MatrixErrorDto.class);
+        case null, default -> null;
+      };
+    } catch (IOException e) {
+      // Not every error response carries a standard error body
+      return null;
     }
   }
 }
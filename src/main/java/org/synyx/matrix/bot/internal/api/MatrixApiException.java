@@ -2,17 +2,93 @@ package org.synyx.matrix.bot.internal.api;
 
 import java.io.IOException;
 import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Optional;
+import org.synyx.matrix.bot.internal.api.dto.MatrixErrorDto;
 
 public class MatrixApiException extends Exception {
 
+  private static final int TOO_MANY_REQUESTS = 429;
+  private static final String LIMIT_EXCEEDED = "M_LIMIT_EXCEEDED";
+  private static final int UNAUTHORIZED = 401;
+  private static final String UNKNOWN_TOKEN = "M_UNKNOWN_TOKEN";
+
+  private final int statusCode;
+  private final String errorCode;
+  private final Duration retryAfter;
+
   public MatrixApiException(String performedAction, HttpResponse<?> response) {
 
-    super("%s failed - %d".formatted(performedAction, response.statusCode()));
+    this(performedAction, response, null);
+  }
+
+  public MatrixApiException(
+      String performedAction, HttpResponse<?> response, MatrixErrorDto error) {
+
+    super(
+        error == null || error.errorCode() == null
+            ? "%s failed - %d".formatted(performedAction, response.statusCode())
+            : "%s failed - %d %s"
+                .formatted(performedAction, response.statusCode(), error.errorCode()));
+
+    this.statusCode = response.statusCode();
+    this.errorCode = error == null ? null : error.errorCode();
+    this.retryAfter =
+        Optional.ofNullable(error)
+            .map(MatrixErrorDto::retryAfterMs)
+            .map(Duration::ofMillis)
+            .or(() -> parseRetryAfterHeader(response))
+            .orElse(null);
   }
 
   public MatrixApiException(String performedAction, IOException ioException) {
 
     super(
         "%s failed - %s".formatted(performedAction, ioException.getClass().getName()), ioException);
+
+    this.statusCode = -1;
+    this.errorCode = null;
+    this.retryAfter = null;
+  }
+
+  public int getStatusCode() {
+
+    return statusCode;
+  }
+
+  public Optional<String> getErrorCode() {
+
+    return Optional.ofNullable(errorCode);
+  }
+
+  /** Returns how long the server asked to wait before retrying the request, if it did. */
+  public Optional<Duration> getRetryAfter() {
+
+    return Optional.ofNullable(retryAfter);
+  }
+
+  public boolean isRateLimited() {
+
+    return statusCode == TOO_MANY_REQUESTS || LIMIT_EXCEEDED.equals(errorCode);
+  }
+
+  /** Returns whether the server rejected the access token, e.g. because it expired. */
+  public boolean isUnknownToken() {
+
+    return statusCode == UNAUTHORIZED && UNKNOWN_TOKEN.equals(errorCode);
+  }
+
+  private static Optional<Duration> parseRetryAfterHeader(HttpResponse<?> response) {
+
+    try {
+      return response
+          .headers()
+          .firstValue("Retry-After")
+          .map(String::trim)
+          .map(Long::parseLong)
+          .map(Duration::ofSeconds);
+    } catch (NumberFormatException e) {
+      return Optional.empty();
+    }
   }
 }
@@ -0,0 +1,60 @@
+package org.synyx.matrix.bot.internal.api;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * The HTTP client used to talk to the matrix server and its timeouts.
+ *
+ * @param httpClient The client to send requests with.
+ * @param ownsHttpClient Whether the client has been created for this transport only and can be
+ *     shut down with it.
+ * @param syncTimeout How long the server may hold back a sync response while waiting for events.
+ * @param requestTimeout The timeout of all requests other than syncs.
+ * @param compressSyncResponses Whether to ask the server to compress sync responses.
+ */
+public record MatrixHttpTransport(
+    HttpClient httpClient,
+    boolean ownsHttpClient,
+    Duration syncTimeout,
+    Duration requestTimeout,
+    boolean compressSyncResponses) {
+
+  public static final Duration DEFAULT_SYNC_TIMEOUT = Duration.of(30, ChronoUnit.SECONDS);
+  public static final Duration DEFAULT_REQUEST_TIMEOUT = Duration.of(30, ChronoUnit.SECONDS);
+
+  public MatrixHttpTransport {
+
+    checkTimeouts(syncTimeout, requestTimeout);
+  }
+
+  /**
+   * Returns the timeout of a sync request as a whole: one and a half times the sync timeout, but
+   * never less than the request timeout, so that a short or zero sync timeout still leaves time for
+   * the response to arrive.
+   */
+  public Duration syncRequestTimeout() {
+
+    final var syncRequestTimeout = syncTimeout.multipliedBy(3).dividedBy(2);
+    return syncRequestTimeout.compareTo(requestTimeout) > 0 ? syncRequestTimeout : requestTimeout;
+  }
+
+  /**
+   * Checks timeouts given to a builder before anything is created from them.
+   *
+   * @throws IllegalStateException The sync timeout is negative or the request timeout is not at
+   *     least one millisecond.
+   */
+  public static void checkTimeouts(Duration syncTimeout, Duration requestTimeout) {
+
+    if (syncTimeout.isNegative()) {
+      throw new IllegalStateException("Sync timeout must not be negative");
+    }
+
+    // A zero timeout is rejected by the HTTP client, anything shorter cannot complete any request
+    if (requestTimeout.toMillis() < 1) {
+      throw new IllegalStateException("Request timeout must be at least one millisecond");
+    }
+  }
+}
@@ -0,0 +1,18 @@
+package org.synyx.matrix.bot.internal.api;
+
+import org.synyx.matrix.bot.internal.api.dto.InvitedRoomDto;
+import org.synyx.matrix.bot.internal.api.dto.JoinedRoomDto;
+import org.synyx.matrix.bot.internal.api.dto.LeftRoomDto;
+
+/**
+ * Receives the rooms of a sync response one by one while the response is still being read from the
+ * server, in the order they appear in the response.
+ */
+public interface SyncResponseHandler {
+
+  void onInvitedRoom(String roomId, InvitedRoomDto room) throws InterruptedException;
+
+  void onJoinedRoom(String roomId, JoinedRoomDto room) throws InterruptedException;
+
+  void onLeftRoom(String roomId, LeftRoomDto room) throws InterruptedException;
+}
@@ -0,0 +1,92 @@
+package org.synyx.matrix.bot.internal.api;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Optional;
+import org.synyx.matrix.bot.internal.api.dto.InvitedRoomDto;
+import org.synyx.matrix.bot.internal.api.dto.JoinedRoomDto;
+import org.synyx.matrix.bot.internal.api.dto.LeftRoomDto;
+
+/**
+ * Parses a sync response incrementally. Only a single room is materialized at any time, so the
+ * memory needed does not depend on the size of the whole response.
+ */
+public class SyncResponseParser {
+
+  private final ObjectMapper objectMapper;
+
+  public SyncResponseParser(ObjectMapper objectMapper) {
+
+    this.objectMapper = objectMapper;
+  }
+
+  public Optional<String> parse(InputStream inputStream, SyncResponseHandler handler)
+      throws IOException, InterruptedException {
+
+    try (var parser = objectMapper.createParser(inputStream)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new JsonParseException(parser, "Expected sync response to be a JSON object");
+      }
+
+      String nextBatch = null;
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        final var fieldName = parser.currentName();
+        parser.nextToken();
+
+        switch (fieldName) {
+          case "next_batch" -> nextBatch = parser.getValueAsString();
+          case "rooms" -> parseRooms(parser, handler);
+          default -> parser.skipChildren();
+        }
+      }
+
+      return Optional.ofNullable(nextBatch);
+    }
+  }
+
+  private void parseRooms(JsonParser parser, SyncResponseHandler handler)
+      throws IOException, InterruptedException {
+
+    if (parser.currentToken() != JsonToken.START_OBJECT) {
+      parser.skipChildren();
+      return;
+    }
+
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      final var fieldName = parser.currentName();
+      parser.nextToken();
+
+      switch (fieldName) {
+        case "invite" -> parseRoomMap(parser, InvitedRoomDto.class, handler::onInvitedRoom);
+        case "join" -> parseRoomMap(parser, JoinedRoomDto.class, handler::onJoinedRoom);
+        case "leave" -> parseRoomMap(parser, LeftRoomDto.class, handler::onLeftRoom);
+        default -> parser.skipChildren();
+      }
+    }
+  }
+
+  private <T> void parseRoomMap(JsonParser parser, Class<T> clazz, RoomConsumer<T> consumer)
+      throws IOException, InterruptedException {
+
+    if (parser.currentToken() != JsonToken.START_OBJECT) {
+      parser.skipChildren();
+      return;
+    }
+
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      final var roomId = parser.currentName();
+      parser.nextToken();
+
+      consumer.accept(roomId, objectMapper.readValue(parser, clazz));
+    }
+  }
+
+  private interface RoomConsumer<T> {
+
+    void accept(String roomId, T room) throws InterruptedException;
+  }
+}
@@ -1,10 +1,16 @@
 package org.synyx.matrix.bot.internal.api.dto;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import org.synyx.matrix.bot.internal.api.dto.event.EventContentDto;
 
+/**
+ * An event of a room. The content is only decoded for event types the client makes use of, see
+ * {@link EventContentDto}, and {@code null} otherwise.
+ */
+@JsonDeserialize(using = ClientEventDtoDeserializer.class)
 public record ClientEventDto(
-    JsonNode content,
+    EventContentDto content,
     @JsonProperty("event_id") String eventId,
     @JsonProperty("origin_server_ts") long originServerTs,
     String sender,
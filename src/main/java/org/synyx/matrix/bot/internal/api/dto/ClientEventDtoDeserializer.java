@@ -0,0 +1,114 @@
+package org.synyx.matrix.bot.internal.api.dto;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import java.io.IOException;
+import org.synyx.matrix.bot.internal.api.dto.event.EventContentDto;
+
+/**
+ * Decodes the content and previous content of an event directly into the DTO of its type, see
+ * {@link EventContentReader}.
+ */
+class ClientEventDtoDeserializer extends StdDeserializer<ClientEventDto> {
+
+  ClientEventDtoDeserializer() {
+
+    super(ClientEventDto.class);
+  }
+
+  @Override
+  public ClientEventDto deserialize(JsonParser parser, DeserializationContext context)
+      throws IOException {
+
+    var token = EventContentReader.enterObject(parser);
+    if (token == null) {
+      return (ClientEventDto) context.handleUnexpectedToken(ClientEventDto.class, parser);
+    }
+
+    EventContentDto content = null;
+    TokenBuffer bufferedContent = null;
+    String eventId = null;
+    long originServerTs = 0;
+    String sender = null;
+    String stateKey = null;
+    String type = null;
+    UnsignedDataDto unsigned = null;
+    TokenBuffer bufferedUnsigned = null;
+
+    for (; token == JsonToken.FIELD_NAME; token = parser.nextToken()) {
+      final var field = parser.currentName();
+      parser.nextToken();
+
+      switch (field) {
+        case "content" -> {
+          if (type != null) {
+            content = EventContentReader.readContent(parser, context, type);
+          } else {
+            bufferedContent = EventContentReader.buffer(parser, context);
+          }
+        }
+        case "unsigned" -> {
+          if (type != null) {
+            unsigned = readUnsigned(parser, context, type);
+          } else {
+            bufferedUnsigned = EventContentReader.buffer(parser, context);
+          }
+        }
+        case "event_id" -> eventId = EventContentReader.readString(parser);
+        case "origin_server_ts" -> originServerTs = EventContentReader.readLong(parser);
+        case "sender" -> sender = EventContentReader.readString(parser);
+        case "state_key" -> stateKey = EventContentReader.readString(parser);
+        case "type" -> type = EventContentReader.readString(parser);
+        default -> parser.skipChildren();
+      }
+    }
+
+    if (bufferedContent != null && type != null) {
+      try (var replayingParser = EventContentReader.replay(bufferedContent, parser)) {
+        content = EventContentReader.readContent(replayingParser, context, type);
+      }
+    }
+
+    if (bufferedUnsigned != null) {
+      try (var replayingParser = EventContentReader.replay(bufferedUnsigned, parser)) {
+        unsigned = readUnsigned(replayingParser, context, type);
+      }
+    }
+
+    return new ClientEventDto(content, eventId, originServerTs, sender, stateKey, type, unsigned);
+  }
+
+  private static UnsignedDataDto readUnsigned(
+      JsonParser parser, DeserializationContext context, String eventType) throws IOException {
+
+    var token = EventContentReader.enterObject(parser);
+    if (token == null) {
+      parser.skipChildren();
+      return null;
+    }
+
+    long age = 0;
+    MembershipStateDto membership = null;
+    EventContentDto previousContent = null;
+    String transactionId = null;
+
+    for (; token == JsonToken.FIELD_NAME; token = parser.nextToken()) {
+      final var field = parser.currentName();
+      parser.nextToken();
+
+      switch (field) {
+        case "age" -> age = EventContentReader.readLong(parser);
+        case "membership" -> membership = context.readValue(parser, MembershipStateDto.class);
+        case "prev_content" ->
+            previousContent = EventContentReader.readContent(parser, context, eventType);
+        case "transaction_id" -> transactionId = EventContentReader.readString(parser);
+        default -> parser.skipChildren();
+      }
+    }
+
+    return new UnsignedDataDto(age, membership, previousContent, transactionId);
+  }
+}
@@ -0,0 +1,84 @@
+package org.synyx.matrix.bot.internal.api.dto;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import java.io.IOException;
+import org.synyx.matrix.bot.internal.api.dto.event.EventContentDto;
+
+/**
+ * Helpers for deserializing events, whose content can only be decoded once the event type is known.
+ * Content of event types the client does not use is skipped without being materialized.
+ */
+final class EventContentReader {
+
+  private EventContentReader() {}
+
+  /**
+   * Moves the parser from the start of an event object to its first field.
+   *
+   * @return The token at the first field, or {@code null} if the parser is not at an event object.
+   */
+  static JsonToken enterObject(JsonParser parser) throws IOException {
+
+    var token = parser.currentToken();
+    if (token == JsonToken.START_OBJECT) {
+      token = parser.nextToken();
+    }
+
+    return token == JsonToken.FIELD_NAME || token == JsonToken.END_OBJECT ? token : null;
+  }
+
+  /**
+   * Reads the content of an event of the given type, the parser being positioned at the start of
+   * the content.
+   *
+   * @return The decoded content, or {@code null} if the event type is not used by the client.
+   */
+  static EventContentDto readContent(
+      JsonParser parser, DeserializationContext context, String eventType) throws IOException {
+
+    final var maybeContentClass = EventContentDto.contentClassOf(eventType);
+    if (maybeContentClass.isEmpty() || parser.currentToken() != JsonToken.START_OBJECT) {
+      parser.skipChildren();
+      return null;
+    }
+
+    return context.readValue(parser, maybeContentClass.get());
+  }
+
+  /**
+   * Copies the value at the current position of the parser, so it can be decoded once the type of
+   * the event has been read. Events usually list their content before their type.
+   */
+  static TokenBuffer buffer(JsonParser parser, DeserializationContext context) throws IOException {
+
+    return context.bufferAsCopyOfValue(parser);
+  }
+
+  /** Returns a parser positioned at the start of a value copied by {@link #buffer}. */
+  static JsonParser replay(TokenBuffer buffer, JsonParser parser) throws IOException {
+
+    final var replayingParser = buffer.asParser(parser.getCodec());
+    replayingParser.nextToken();
+
+    return replayingParser;
+  }
+
+  static String readString(JsonParser parser) throws IOException {
+
+    final var value = parser.getValueAsString();
+    parser.skipChildren();
+
+    return value;
+  }
+
+  static long readLong(JsonParser parser) throws IOException {
+
+    final var value = parser.getValueAsLong();
+    parser.skipChildren();
+
+    return value;
+  }
+}
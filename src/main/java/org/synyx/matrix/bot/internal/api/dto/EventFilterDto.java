@@ -0,0 +1,9 @@
+package org.synyx.matrix.bot.internal.api.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.List;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record EventFilterDto(
+    List<String> types, @JsonProperty("not_types") List<String> notTypes) {}
@@ -0,0 +1,10 @@
+package org.synyx.matrix.bot.internal.api.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record FilterDto(
+    @JsonProperty("account_data") EventFilterDto accountData,
+    EventFilterDto presence,
+    RoomFilterDto room) {}
@@ -0,0 +1,5 @@
+package org.synyx.matrix.bot.internal.api.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public record FilterIdResponseDto(@JsonProperty("filter_id") String filterId) {}
@@ -0,0 +1,5 @@
+package org.synyx.matrix.bot.internal.api.dto;
+
+import java.util.Map;
+
+public record JoinedMembersResponseDto(Map<String, RoomMemberDto> joined) {}
@@ -1,4 +1,7 @@
 package org.synyx.matrix.bot.internal.api.dto;
 
 public record JoinedRoomDto(
-    RoomStateDto state, RoomTimelineDto timeline, RoomEphemeralDto ephemeral) {}
+    RoomSummaryDto summary,
+    RoomStateDto state,
+    RoomTimelineDto timeline,
+    RoomEphemeralDto ephemeral) {}
@@ -0,0 +1,8 @@
+package org.synyx.matrix.bot.internal.api.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public record MatrixErrorDto(
+    @JsonProperty("errcode") String errorCode,
+    String error,
+    @JsonProperty("retry_after_ms") Long retryAfterMs) {}
@@ -1,3 +1,12 @@
 package org.synyx.matrix.bot.internal.api.dto;
 
-public record MatrixLoginDto(MatrixIdentifierDto identifier, String password, String type) {}
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record MatrixLoginDto(
+    MatrixIdentifierDto identifier,
+    String password,
+    String type,
+    @JsonProperty("device_id") String deviceId,
+    @JsonProperty("refresh_token") boolean refreshToken) {}
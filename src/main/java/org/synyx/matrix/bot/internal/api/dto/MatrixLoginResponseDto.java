@@ -3,4 +3,7 @@ package org.synyx.matrix.bot.internal.api.dto;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 public record MatrixLoginResponseDto(
-    @JsonProperty("user_id") String userId, @JsonProperty("access_token") String accessToken) {}
+    @JsonProperty("user_id") String userId,
+    @JsonProperty("access_token") String accessToken,
+    @JsonProperty("refresh_token") String refreshToken,
+    @JsonProperty("device_id") String deviceId) {}
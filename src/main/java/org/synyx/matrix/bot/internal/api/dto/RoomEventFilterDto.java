@@ -0,0 +1,14 @@
+package org.synyx.matrix.bot.internal.api.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.List;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record RoomEventFilterDto(
+    List<String> types,
+    @JsonProperty("not_types") List<String> notTypes,
+    Integer limit,
+    @JsonProperty("lazy_load_members") Boolean lazyLoadMembers,
+    List<String> rooms,
+    List<String> senders) {}
@@ -0,0 +1,11 @@
+package org.synyx.matrix.bot.internal.api.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record RoomFilterDto(
+    @JsonProperty("account_data") RoomEventFilterDto accountData,
+    RoomEventFilterDto ephemeral,
+    RoomEventFilterDto state,
+    RoomEventFilterDto timeline) {}
@@ -0,0 +1,7 @@
+package org.synyx.matrix.bot.internal.api.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public record RoomMemberDto(
+    @JsonProperty("display_name") String displayName,
+    @JsonProperty("avatar_url") String avatarUrl) {}
@@ -0,0 +1,9 @@
+package org.synyx.matrix.bot.internal.api.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.List;
+
+public record RoomSummaryDto(
+    @JsonProperty("m.heroes") List<String> heroes,
+    @JsonProperty("m.joined_member_count") Integer joinedMemberCount,
+    @JsonProperty("m.invited_member_count") Integer invitedMemberCount) {}
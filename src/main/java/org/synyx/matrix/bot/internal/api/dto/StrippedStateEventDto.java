@@ -1,7 +1,16 @@
 package org.synyx.matrix.bot.internal.api.dto;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import org.synyx.matrix.bot.internal.api.dto.event.EventContentDto;
 
+/**
+ * A state event of a room the client has been invited to. The content is only decoded for event
+ * types the client makes use of, see {@link EventContentDto}, and {@code null} otherwise.
+ */
+@JsonDeserialize(using = StrippedStateEventDtoDeserializer.class)
 public record StrippedStateEventDto(
-    JsonNode content, String sender, @JsonProperty("state_key") String stateKey, String type) {}
+    EventContentDto content,
+    String sender,
+    @JsonProperty("state_key") String stateKey,
+    String type) {}
@@ -0,0 +1,65 @@
+package org.synyx.matrix.bot.internal.api.dto;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import java.io.IOException;
+import org.synyx.matrix.bot.internal.api.dto.event.EventContentDto;
+
+/**
+ * Decodes the content of a stripped state event directly into the DTO of its type, see {@link
+ * EventContentReader}.
+ */
+class StrippedStateEventDtoDeserializer extends StdDeserializer<StrippedStateEventDto> {
+
+  StrippedStateEventDtoDeserializer() {
+
+    super(StrippedStateEventDto.class);
+  }
+
+  @Override
+  public StrippedStateEventDto deserialize(JsonParser parser, DeserializationContext context)
+      throws IOException {
+
+    var token = EventContentReader.enterObject(parser);
+    if (token == null) {
+      return (StrippedStateEventDto)
+          context.handleUnexpectedToken(StrippedStateEventDto.class, parser);
+    }
+
+    EventContentDto content = null;
+    TokenBuffer bufferedContent = null;
+    String sender = null;
+    String stateKey = null;
+    String type = null;
+
+    for (; token == JsonToken.FIELD_NAME; token = parser.nextToken()) {
+      final var field = parser.currentName();
+      parser.nextToken();
+
+      switch (field) {
+        case "content" -> {
+          if (type != null) {
+            content = EventContentReader.readContent(parser, context, type);
+          } else {
+            bufferedContent = EventContentReader.buffer(parser, context);
+          }
+        }
+        case "sender" -> sender = EventContentReader.readString(parser);
+        case "state_key" -> stateKey = EventContentReader.readString(parser);
+        case "type" -> type = EventContentReader.readString(parser);
+        default -> parser.skipChildren();
+      }
+    }
+
+    if (bufferedContent != null && type != null) {
+      try (var replayingParser = EventContentReader.replay(bufferedContent, parser)) {
+        content = EventContentReader.readContent(replayingParser, context, type);
+      }
+    }
+
+    return new StrippedStateEventDto(content, sender, stateKey, type);
+  }
+}
@@ -1,10 +1,14 @@
 package org.synyx.matrix.bot.internal.api.dto;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.databind.JsonNode;
+import org.synyx.matrix.bot.internal.api.dto.event.EventContentDto;
 
+/**
+ * Deserialized as part of {@link ClientEventDto}, since the type of the previous content depends on
+ * the type of the event.
+ */
 public record UnsignedDataDto(
     long age,
     MembershipStateDto membership,
-    @JsonProperty("prev_content") JsonNode prevContent,
+    @JsonProperty("prev_content") EventContentDto prevContent,
     @JsonProperty("transaction_id") String transactionId) {}
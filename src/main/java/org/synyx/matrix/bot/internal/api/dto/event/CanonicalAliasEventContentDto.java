@@ -4,7 +4,8 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import java.util.List;
 
 public record CanonicalAliasEventContentDto(
-    String alias, @JsonProperty("alt_aliases") List<String> altAliases) {
+    String alias, @JsonProperty("alt_aliases") List<String> altAliases)
+    implements EventContentDto {
 
   public static final String TYPE = "m.room.canonical_alias";
 }
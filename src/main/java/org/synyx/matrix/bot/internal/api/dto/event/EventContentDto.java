@@ -0,0 +1,29 @@
+package org.synyx.matrix.bot.internal.api.dto.event;
+
+import java.util.Optional;
+
+/**
+ * The content of an event type the client makes use of. The content of all other event types is
+ * skipped while parsing.
+ */
+public sealed interface EventContentDto
+    permits CanonicalAliasEventContentDto,
+        MemberEventContentDto,
+        MessageEventContentDto,
+        RoomNameEventContentDto {
+
+  static Optional<Class<? extends EventContentDto>> contentClassOf(String eventType) {
+
+    if (eventType == null) {
+      return Optional.empty();
+    }
+
+    return switch (eventType) {
+      case CanonicalAliasEventContentDto.TYPE -> Optional.of(CanonicalAliasEventContentDto.class);
+      case MemberEventContentDto.TYPE -> Optional.of(MemberEventContentDto.class);
+      case MessageEventContentDto.TYPE -> Optional.of(MessageEventContentDto.class);
+      case RoomNameEventContentDto.TYPE -> Optional.of(RoomNameEventContentDto.class);
+      default -> Optional.empty();
+    };
+  }
+}
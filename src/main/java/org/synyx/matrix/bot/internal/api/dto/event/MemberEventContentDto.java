@@ -4,7 +4,8 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import org.synyx.matrix.bot.internal.api.dto.MembershipStateDto;
 
 public record MemberEventContentDto(
-    @JsonProperty("displayname") String displayName, MembershipStateDto membership) {
+    @JsonProperty("displayname") String displayName, MembershipStateDto membership)
+    implements EventContentDto {
 
   public static final String TYPE = "m.room.member";
 }
@@ -4,7 +4,8 @@ import com.fasterxml.jackson.annotation.JsonEnumDefaultValue;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 public record MessageEventContentDto(
-    String body, @JsonProperty("msgtype") MessageType messageType) {
+    String body, @JsonProperty("msgtype") MessageType messageType)
+    implements EventContentDto {
 
   public static final String TYPE = "m.room.message";
 
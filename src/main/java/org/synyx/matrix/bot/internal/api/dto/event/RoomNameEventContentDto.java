@@ -1,6 +1,6 @@
 package org.synyx.matrix.bot.internal.api.dto.event;
 
-public record RoomNameEventContentDto(String name) {
+public record RoomNameEventContentDto(String name) implements EventContentDto {
 
   public static final String TYPE = "m.room.name";
 }
@@ -0,0 +1,13 @@
+package org.synyx.matrix.bot.internal.snapshot;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.Map;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record RoomSnapshotDto(
+    String id,
+    @JsonProperty("canonical_alias") String canonicalAlias,
+    String name,
+    Map<String, String> members,
+    @JsonProperty("joined_member_count") Integer joinedMemberCount) {}
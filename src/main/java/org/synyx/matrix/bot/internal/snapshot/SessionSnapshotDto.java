@@ -0,0 +1,12 @@
+package org.synyx.matrix.bot.internal.snapshot;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record SessionSnapshotDto(
+    int version,
+    @JsonProperty("user_id") String userId,
+    @JsonProperty("access_token") String accessToken,
+    @JsonProperty("refresh_token") String refreshToken,
+    @JsonProperty("device_id") String deviceId) {}
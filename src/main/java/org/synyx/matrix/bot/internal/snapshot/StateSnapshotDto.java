@@ -0,0 +1,10 @@
+package org.synyx.matrix.bot.internal.snapshot;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.List;
+
+public record StateSnapshotDto(
+    int version,
+    @JsonProperty("own_user_id") String ownUserId,
+    @JsonProperty("invited_rooms") List<RoomSnapshotDto> invitedRooms,
+    @JsonProperty("joined_rooms") List<RoomSnapshotDto> joinedRooms) {}
@@ -0,0 +1,356 @@
+package org.synyx.matrix.bot;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.synyx.matrix.bot.domain.MatrixEventId;
+import org.synyx.matrix.bot.domain.MatrixMessage;
+import org.synyx.matrix.bot.domain.MatrixRoom;
+import org.synyx.matrix.bot.domain.MatrixRoomId;
+import org.synyx.matrix.bot.testing.FakeMatrixHomeserver;
+import org.synyx.matrix.bot.testing.FakeSyncBatch;
+
+class MatrixClientFakeHomeserverTest {
+
+  private static final String USER_ID = "@bot:localhost";
+  private static final String ROOM_ID = "!room:localhost";
+  private static final String OTHER_ROOM_ID = "!other:localhost";
+  private static final String SENDER_ID = "@alice:localhost";
+  private static final Duration TIMEOUT = Duration.ofSeconds(20);
+
+  private FakeMatrixHomeserver homeserver;
+  private final List<MatrixClient> clients = new ArrayList<>();
+  private final List<Thread> syncThreads = new ArrayList<>();
+
+  @BeforeEach
+  void startHomeserver() throws IOException {
+
+    homeserver = FakeMatrixHomeserver.start(USER_ID);
+
+    final var initialSync = new FakeSyncBatch();
+    initialSync.membership(ROOM_ID, USER_ID, "join");
+    initialSync.membership(OTHER_ROOM_ID, USER_ID, "join");
+    homeserver.setInitialSync(initialSync);
+  }
+
+  @AfterEach
+  void stopClientsAndHomeserver() throws InterruptedException {
+
+    clients.forEach(MatrixClient::requestStopOfSync);
+    for (final var syncThread : syncThreads) {
+      syncThread.join(TIMEOUT);
+    }
+
+    homeserver.close();
+  }
+
+  @Test
+  void callsCallbacksOfTheSameRoomInOrderWhenDispatchedConcurrently() throws Exception {
+
+    final var bodiesByRoom = new ConcurrentHashMap<String, List<String>>();
+    final var runningByRoom = new ConcurrentHashMap<String, AtomicInteger>();
+    final var overlappingCallbacks = new AtomicInteger();
+    final var consumed = new CountDownLatch(12);
+
+    final var client = createClient();
+    client.setEventDispatchConcurrency(4);
+    client.setEventCallback(
+        new MatrixEventConsumer() {
+          @Override
+          public void onMessage(MatrixState state, MatrixRoom room, MatrixMessage message) {
+
+            final var roomId = room.getId().getFormatted();
+            final var running = runningByRoom.computeIfAbsent(roomId, id -> new AtomicInteger());
+            if (running.incrementAndGet() > 1) {
+              overlappingCallbacks.incrementAndGet();
+            }
+
+            // The first room is slow, so the other one overtakes it
+            sleep(roomId.equals(ROOM_ID) ? 30 : 1);
+            bodiesByRoom
+                .computeIfAbsent(roomId, id -> new ArrayList<>())
+                .add(message.getBody());
+
+            running.decrementAndGet();
+            consumed.countDown();
+          }
+        });
+    startSyncing(client);
+    awaitConnected(client);
+
+    for (var batch = 0; batch < 3; batch++) {
+      final var syncBatch = new FakeSyncBatch();
+      for (var message = 0; message < 2; message++) {
+        syncBatch.message(ROOM_ID, SENDER_ID, "%d-%d".formatted(batch, message));
+        syncBatch.message(OTHER_ROOM_ID, SENDER_ID, "%d-%d".formatted(batch, message));
+      }
+      homeserver.enqueueSyncBatch(syncBatch);
+    }
+
+    assertTrue(consumed.await(TIMEOUT.toSeconds(), TimeUnit.SECONDS));
+    final var expectedBodies = List.of("0-0", "0-1", "1-0", "1-1", "2-0", "2-1");
+    assertEquals(expectedBodies, bodiesByRoom.get(ROOM_ID));
+    assertEquals(expectedBodies, bodiesByRoom.get(OTHER_ROOM_ID));
+    assertEquals(0, overlappingCallbacks.get());
+  }
+
+  @Test
+  void doesNotNotifyAboutEventsAgainWhenSyncingFromAnEarlierBatchAfterReconnecting()
+      throws Exception {
+
+    final var persistedState = new InMemoryPersistedState(new ConcurrentHashMap<>(), null);
+    final var firstBodies = new LinkedBlockingQueue<String>();
+
+    final var firstClient = createClient();
+    firstClient.setPersistedStateProvider(persistedState);
+    firstClient.setEventCallback(collectingBodies(firstBodies));
+    final var firstSyncThread = startSyncing(firstClient);
+    awaitConnected(firstClient);
+    final var batchBeforeMessage = persistedState.getLastBatch().orElseThrow();
+
+    final var syncBatch = new FakeSyncBatch();
+    final var eventId = syncBatch.message(ROOM_ID, SENDER_ID, "once");
+    homeserver.enqueueSyncBatch(syncBatch);
+
+    assertEquals("once", firstBodies.poll(TIMEOUT.toSeconds(), TimeUnit.SECONDS));
+    awaitCondition(() -> persistedState.getRecentEventIds().contains(eventId));
+    firstClient.requestStopOfSync();
+    firstSyncThread.join(TIMEOUT);
+
+    // As if the process stopped after storing the event ids, but before storing the batch
+    persistedState.setLastBatch(batchBeforeMessage);
+
+    final var secondBodies = new LinkedBlockingQueue<String>();
+    final var secondClient = createClient();
+    secondClient.setPersistedStateProvider(persistedState);
+    secondClient.setEventCallback(collectingBodies(secondBodies));
+    startSyncing(secondClient);
+    awaitConnected(secondClient);
+
+    final var laterSyncBatch = new FakeSyncBatch();
+    laterSyncBatch.message(ROOM_ID, SENDER_ID, "later");
+    homeserver.enqueueSyncBatch(laterSyncBatch);
+
+    assertEquals("later", secondBodies.poll(TIMEOUT.toSeconds(), TimeUnit.SECONDS));
+    assertTrue(secondBodies.isEmpty());
+  }
+
+  @Test
+  void retriesRateLimitedSendsWithTheSameTransactionId() throws Exception {
+
+    final var client = createClient();
+    startSyncing(client);
+    awaitConnected(client);
+
+    homeserver.rateLimitNext(FakeMatrixHomeserver.Endpoint.SEND, Duration.ofMillis(50), 2);
+    final var eventId =
+        client.sendMessageAsync(MatrixRoomId.from(ROOM_ID).orElseThrow(), "hello").get();
+
+    final var attempts = homeserver.getSendAttemptTransactionIds();
+    assertEquals(3, attempts.size());
+    assertEquals(1, attempts.stream().distinct().count());
+
+    final var sentEvents = homeserver.getSentEvents();
+    assertEquals(1, sentEvents.size());
+    assertEquals(attempts.getFirst(), sentEvents.getFirst().transactionId());
+    assertEquals(ROOM_ID, sentEvents.getFirst().roomId());
+    assertEquals("hello", sentEvents.getFirst().content().path("body").asText());
+    assertEquals(
+        MatrixEventId.from("$sent-%s".formatted(attempts.getFirst())).orElseThrow(), eventId);
+  }
+
+  @Test
+  void standbyReplicaTakesOverSyncingWithoutFullSync(@TempDir Path tempDir) throws Exception {
+
+    final var lockFile = Files.createFile(tempDir.resolve("sync.lock"));
+    final var storage = new ConcurrentHashMap<String, Object>();
+    final var fullSyncs = new AtomicInteger();
+    final var metricsListener =
+        new MatrixMetricsListener() {
+          @Override
+          public void onRequest(String endpoint, int statusCode, long latencyNanos) {
+
+            if (endpoint.equals("full syncing")) {
+              fullSyncs.incrementAndGet();
+            }
+          }
+        };
+
+    final var activeBodies = new LinkedBlockingQueue<String>();
+    final var active = createClient();
+    active.setPersistedStateProvider(
+        new InMemoryPersistedState(storage, new MatrixFileSyncLease(lockFile)));
+    active.setMetricsListener(metricsListener);
+    active.setEventCallback(collectingBodies(activeBodies));
+    final var activeSyncThread = startSyncing(active);
+    awaitConnected(active);
+
+    final var standbyBodies = new LinkedBlockingQueue<String>();
+    final var standby = createClient();
+    standby.setPersistedStateProvider(
+        new InMemoryPersistedState(storage, new MatrixFileSyncLease(lockFile)));
+    standby.setMetricsListener(metricsListener);
+    standby.setEventCallback(collectingBodies(standbyBodies));
+    startSyncing(standby);
+
+    final var syncBatch = new FakeSyncBatch();
+    syncBatch.message(ROOM_ID, SENDER_ID, "before");
+    homeserver.enqueueSyncBatch(syncBatch);
+
+    assertEquals("before", activeBodies.poll(TIMEOUT.toSeconds(), TimeUnit.SECONDS));
+    assertFalse(standby.isConnected());
+
+    active.requestStopOfSync();
+    activeSyncThread.join(TIMEOUT);
+    awaitConnected(standby);
+
+    final var laterSyncBatch = new FakeSyncBatch();
+    laterSyncBatch.message(ROOM_ID, SENDER_ID, "after");
+    homeserver.enqueueSyncBatch(laterSyncBatch);
+
+    assertEquals("after", standbyBodies.poll(TIMEOUT.toSeconds(), TimeUnit.SECONDS));
+    assertTrue(standbyBodies.isEmpty());
+    assertTrue(activeBodies.isEmpty());
+    assertEquals(1, fullSyncs.get());
+    assertEquals(1, homeserver.getLogins());
+  }
+
+  private MatrixClient createClient() {
+
+    final var client = MatrixClient.create(homeserver.getUrl(), "bot", "password");
+    clients.add(client);
+
+    return client;
+  }
+
+  private Thread startSyncing(MatrixClient client) {
+
+    final var syncThread =
+        Thread.ofVirtual()
+            .start(
+                () -> {
+                  try {
+                    client.syncContinuous();
+                  } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                  }
+                });
+    syncThreads.add(syncThread);
+
+    return syncThread;
+  }
+
+  private static void awaitConnected(MatrixClient client) throws InterruptedException {
+
+    awaitCondition(client::isConnected);
+  }
+
+  private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+
+    final var deadline = System.nanoTime() + TIMEOUT.toNanos();
+    while (!condition.getAsBoolean()) {
+      assertTrue(System.nanoTime() < deadline, "Timed out waiting for condition");
+      Thread.sleep(20);
+    }
+  }
+
+  private static MatrixEventConsumer collectingBodies(BlockingQueue<String> bodies) {
+
+    return new MatrixEventConsumer() {
+      @Override
+      public void onMessage(MatrixState state, MatrixRoom room, MatrixMessage message) {
+
+        bodies.add(message.getBody());
+      }
+    };
+  }
+
+  private static void sleep(long millis) {
+
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Keeps the persisted state in a map, which replicas share to sync from the same state. */
+  private record InMemoryPersistedState(Map<String, Object> storage, MatrixSyncLease syncLease)
+      implements MatrixPersistedStateProvider {
+
+    @Override
+    public Optional<String> getLastBatch() {
+
+      return Optional.ofNullable((String) storage.get("batch"));
+    }
+
+    @Override
+    public void setLastBatch(String value) {
+
+      storage.put("batch", value);
+    }
+
+    @Override
+    public Optional<String> getStateSnapshot() {
+
+      return Optional.ofNullable((String) storage.get("snapshot"));
+    }
+
+    @Override
+    public void setStateSnapshot(String snapshot) {
+
+      storage.put("snapshot", snapshot);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<String> getRecentEventIds() {
+
+      return (List<String>) storage.getOrDefault("recentEventIds", List.of());
+    }
+
+    @Override
+    public void setRecentEventIds(List<String> eventIds) {
+
+      storage.put("recentEventIds", List.copyOf(eventIds));
+    }
+
+    @Override
+    public Optional<String> getSession() {
+
+      return Optional.ofNullable((String) storage.get("session"));
+    }
+
+    @Override
+    public void setSession(String session) {
+
+      storage.put("session", session);
+    }
+
+    @Override
+    public Optional<MatrixSyncLease> getSyncLease() {
+
+      return Optional.ofNullable(syncLease);
+    }
+  }
+}
@@ -0,0 +1,551 @@
+package org.synyx.matrix.bot.testing;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An in-process matrix homeserver for testing bots without a real server. It serves login, token
+ * refresh, filter upload, sync, sending events, joining and leaving rooms and listing room members
+ * of a single user. Sync responses are scripted using {@link FakeSyncBatch}es, which are served one
+ * after another.
+ * Failures, rate limits, latency and expiring access tokens can be injected. Responses are gzip
+ * compressed if the client accepts it.
+ *
+ * <p>Only the parts of the client-server API used by this library are implemented, and requests
+ * are barely validated.
+ */
+public class FakeMatrixHomeserver implements AutoCloseable {
+
+  private static final String API_PREFIX = "/_matrix/client/v3/";
+  private static final Duration MAX_SYNC_TIMEOUT = Duration.ofSeconds(30);
+
+  /** The endpoints failures and latency can be injected for. */
+  public enum Endpoint {
+    LOGIN,
+    REFRESH,
+    FILTER,
+    SYNC,
+    SEND,
+    JOIN,
+    LEAVE,
+    JOINED_MEMBERS
+  }
+
+  /** An event that was sent to the server. */
+  public record SentEvent(
+      String roomId, String eventType, String transactionId, JsonNode content) {}
+
+  private record InjectedFailure(int statusCode, String errorCode, Duration retryAfter) {}
+
+  private final String userId;
+  private final ObjectMapper objectMapper;
+  private final HttpServer server;
+
+  private final Map<Endpoint, Deque<InjectedFailure>> injectedFailures;
+  private final Map<Endpoint, Duration> injectedLatencies;
+
+  private final List<FakeSyncBatch> syncBatches;
+  private final List<CompletableFuture<Long>> syncBatchDeliveries;
+  private FakeSyncBatch initialSyncBatch;
+
+  private final Map<String, SentEvent> sentEventsByTransactionId;
+  private final List<String> sendAttemptTransactionIds;
+  private final List<String> joinedRoomIds;
+  private final List<String> leftRoomIds;
+  private final Map<String, Map<String, String>> joinedMembersByRoomId;
+  private int joinedMembersRequests;
+  private String accessToken;
+  private String refreshToken;
+  private String deviceId;
+  private int logins;
+  private int refreshes;
+  private boolean closed;
+
+  private FakeMatrixHomeserver(String userId, HttpServer server) {
+
+    this.userId = userId;
+    this.objectMapper = new ObjectMapper();
+    this.server = server;
+    this.injectedFailures = new EnumMap<>(Endpoint.class);
+    this.injectedLatencies = new EnumMap<>(Endpoint.class);
+    this.syncBatches = new ArrayList<>();
+    this.syncBatchDeliveries = new ArrayList<>();
+    this.initialSyncBatch = new FakeSyncBatch();
+    this.sentEventsByTransactionId = new LinkedHashMap<>();
+    this.sendAttemptTransactionIds = new ArrayList<>();
+    this.joinedRoomIds = new ArrayList<>();
+    this.leftRoomIds = new ArrayList<>();
+    this.joinedMembersByRoomId = new HashMap<>();
+    this.joinedMembersRequests = 0;
+    this.accessToken = null;
+    this.refreshToken = null;
+    this.deviceId = null;
+    this.logins = 0;
+    this.refreshes = 0;
+    this.closed = false;
+  }
+
+  /**
+   * Starts a server on a random local port. Every login succeeds and authenticates as the given
+   * user.
+   *
+   * @param userId The id of the user the client is logged in as, e.g. {@code "@bot:localhost"}.
+   * @return The running server.
+   */
+  public static FakeMatrixHomeserver start(String userId) throws IOException {
+
+    final var httpServer =
+        HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    final var homeserver = new FakeMatrixHomeserver(userId, httpServer);
+
+    httpServer.createContext(API_PREFIX, homeserver::handle);
+    httpServer.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    httpServer.start();
+
+    return homeserver;
+  }
+
+  public String getUrl() {
+
+    return "http://%s:%d"
+        .formatted(
+            server.getAddress().getAddress().getHostAddress(), server.getAddress().getPort());
+  }
+
+  public String getUserId() {
+
+    return userId;
+  }
+
+  /** Sets the rooms returned by a sync without a previous batch. */
+  public synchronized void setInitialSync(FakeSyncBatch batch) {
+
+    this.initialSyncBatch = batch;
+  }
+
+  /**
+   * Sets the members served by the joined members endpoint of a room, which clients use if members
+   * are lazy loaded. Rooms without members set are served without any members.
+   *
+   * @param roomId The id of the room.
+   * @param displayNamesByUserId The display names of the members by their id, {@code null} values
+   *     for members without display name.
+   */
+  public synchronized void setJoinedMembers(
+      String roomId, Map<String, String> displayNamesByUserId) {
+
+    joinedMembersByRoomId.put(roomId, new LinkedHashMap<>(displayNamesByUserId));
+  }
+
+  /**
+   * Adds a batch to be served by sync after all previously enqueued batches. A client syncing
+   * again from the same batch gets the same response again.
+   *
+   * @return A future completed with the {@link System#nanoTime()} at which the batch was first
+   *     served.
+   */
+  public synchronized CompletableFuture<Long> enqueueSyncBatch(FakeSyncBatch batch) {
+
+    final var delivery = new CompletableFuture<Long>();
+    syncBatches.add(batch);
+    syncBatchDeliveries.add(delivery);
+    notifyAll();
+
+    return delivery;
+  }
+
+  /** Makes the next requests to an endpoint fail with a standard matrix error. */
+  public synchronized void failNext(Endpoint endpoint, int statusCode, int count) {
+
+    for (var i = 0; i < count; i++) {
+      failuresOf(endpoint).add(new InjectedFailure(statusCode, "M_UNKNOWN", null));
+    }
+  }
+
+  /** Makes the next requests to an endpoint fail with {@code 429 M_LIMIT_EXCEEDED}. */
+  public synchronized void rateLimitNext(Endpoint endpoint, Duration retryAfter, int count) {
+
+    for (var i = 0; i < count; i++) {
+      failuresOf(endpoint).add(new InjectedFailure(429, "M_LIMIT_EXCEEDED", retryAfter));
+    }
+  }
+
+  /** Delays every response of an endpoint, {@link Duration#ZERO} removes the delay. */
+  public synchronized void setLatency(Endpoint endpoint, Duration latency) {
+
+    injectedLatencies.put(endpoint, latency);
+  }
+
+  /** Returns the sent events, each transaction only once, in the order they were received. */
+  public synchronized List<SentEvent> getSentEvents() {
+
+    return List.copyOf(sentEventsByTransactionId.values());
+  }
+
+  /**
+   * Returns the transaction ids of all requests to send an event, including failed and repeated
+   * ones, in the order they were received.
+   */
+  public synchronized List<String> getSendAttemptTransactionIds() {
+
+    return List.copyOf(sendAttemptTransactionIds);
+  }
+
+  public synchronized List<String> getJoinedRoomIds() {
+
+    return List.copyOf(joinedRoomIds);
+  }
+
+  public synchronized List<String> getLeftRoomIds() {
+
+    return List.copyOf(leftRoomIds);
+  }
+
+  public synchronized int getLogins() {
+
+    return logins;
+  }
+
+  public synchronized int getRefreshes() {
+
+    return refreshes;
+  }
+
+  public synchronized int getJoinedMembersRequests() {
+
+    return joinedMembersRequests;
+  }
+
+  /** Returns the device of the last login, a new one is created whenever none is requested. */
+  public synchronized String getDeviceId() {
+
+    return deviceId;
+  }
+
+  /**
+   * Lets the current access token expire, so the next requests fail with {@code 401
+   * M_UNKNOWN_TOKEN} until the client refreshes its token or logs in again.
+   */
+  public synchronized void expireAccessToken() {
+
+    accessToken = null;
+  }
+
+  @Override
+  public void close() {
+
+    synchronized (this) {
+      closed = true;
+      notifyAll();
+    }
+
+    server.stop(0);
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+
+    try (exchange) {
+      final var path = exchange.getRequestURI().getPath().substring(API_PREFIX.length());
+      final var segments = path.split("/");
+      final var method = exchange.getRequestMethod();
+
+      final Endpoint endpoint;
+      if ("POST".equals(method) && path.equals("login")) {
+        endpoint = Endpoint.LOGIN;
+      } else if ("POST".equals(method) && path.equals("refresh")) {
+        endpoint = Endpoint.REFRESH;
+      } else if ("POST".equals(method) && segments.length == 3 && segments[0].equals("user")) {
+        endpoint = Endpoint.FILTER;
+      } else if ("GET".equals(method) && path.equals("sync")) {
+        endpoint = Endpoint.SYNC;
+      } else if ("PUT".equals(method) && segments.length == 5 && segments[2].equals("send")) {
+        endpoint = Endpoint.SEND;
+      } else if ("POST".equals(method) && segments.length == 3 && segments[2].equals("join")) {
+        endpoint = Endpoint.JOIN;
+      } else if ("POST".equals(method) && segments.length == 3 && segments[2].equals("leave")) {
+        endpoint = Endpoint.LEAVE;
+      } else if ("GET".equals(method)
+          && segments.length == 3
+          && segments[2].equals("joined_members")) {
+        endpoint = Endpoint.JOINED_MEMBERS;
+      } else {
+        respondWithError(exchange, 404, "M_UNRECOGNIZED", null);
+        return;
+      }
+
+      delay(endpoint);
+
+      final InjectedFailure failure;
+      synchronized (this) {
+        if (endpoint == Endpoint.SEND) {
+          sendAttemptTransactionIds.add(segments[4]);
+        }
+        failure = failuresOf(endpoint).poll();
+      }
+      if (failure != null) {
+        respondWithError(exchange, failure.statusCode(), failure.errorCode(), failure.retryAfter());
+        return;
+      }
+
+      if (endpoint != Endpoint.LOGIN && endpoint != Endpoint.REFRESH && !isAuthorized(exchange)) {
+        respondWithError(exchange, 401, "M_UNKNOWN_TOKEN", null);
+        return;
+      }
+
+      switch (endpoint) {
+        case LOGIN -> handleLogin(exchange);
+        case REFRESH -> handleRefresh(exchange);
+        case FILTER ->
+            respond(exchange, 200, objectMapper.createObjectNode().put("filter_id", "1"));
+        case SYNC -> handleSync(exchange);
+        case SEND -> handleSend(exchange, segments[1], segments[3], segments[4]);
+        case JOIN -> handleMembership(exchange, segments[1], joinedRoomIds);
+        case LEAVE -> handleMembership(exchange, segments[1], leftRoomIds);
+        case JOINED_MEMBERS -> handleJoinedMembers(exchange, segments[1]);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void handleLogin(HttpExchange exchange) throws IOException {
+
+    final var request = objectMapper.readTree(exchange.getRequestBody());
+    final var body = objectMapper.createObjectNode();
+
+    synchronized (this) {
+      logins++;
+      deviceId = request.path("device_id").asText("FAKEDEVICE%d".formatted(logins));
+      accessToken = "fake-access-token-%d".formatted(logins);
+      refreshToken =
+          request.path("refresh_token").asBoolean(false)
+              ? "fake-refresh-token-%d".formatted(logins)
+              : null;
+
+      body.put("user_id", userId);
+      body.put("access_token", accessToken);
+      body.put("device_id", deviceId);
+      if (refreshToken != null) {
+        body.put("refresh_token", refreshToken);
+      }
+    }
+
+    respond(exchange, 200, body);
+  }
+
+  private void handleRefresh(HttpExchange exchange) throws IOException {
+
+    final var request = objectMapper.readTree(exchange.getRequestBody());
+    final var body = objectMapper.createObjectNode();
+
+    synchronized (this) {
+      if (refreshToken == null || !refreshToken.equals(request.path("refresh_token").asText())) {
+        respondWithError(exchange, 401, "M_UNKNOWN_TOKEN", null);
+        return;
+      }
+
+      refreshes++;
+      accessToken = "fake-access-token-%d-%d".formatted(logins, refreshes);
+      refreshToken = "fake-refresh-token-%d-%d".formatted(logins, refreshes);
+
+      body.put("access_token", accessToken);
+      body.put("refresh_token", refreshToken);
+    }
+
+    respond(exchange, 200, body);
+  }
+
+  private void handleSync(HttpExchange exchange) throws IOException, InterruptedException {
+
+    final var query = parseQuery(exchange.getRequestURI().getRawQuery());
+    final var since = query.get("since");
+    final var requestedTimeout =
+        Duration.ofMillis(Long.parseLong(query.getOrDefault("timeout", "0")));
+    final var timeout =
+        requestedTimeout.compareTo(MAX_SYNC_TIMEOUT) < 0 ? requestedTimeout : MAX_SYNC_TIMEOUT;
+
+    final var body = objectMapper.createObjectNode();
+    if (since == null) {
+      synchronized (this) {
+        body.put("next_batch", batchToken(0));
+        body.set("rooms", initialSyncBatch.toRooms());
+      }
+      respond(exchange, 200, body);
+      return;
+    }
+
+    final var index = parseBatchToken(since);
+    final FakeSyncBatch batch;
+    synchronized (this) {
+      final var deadline = System.nanoTime() + timeout.toNanos();
+      var remaining = timeout.toNanos();
+      while (syncBatches.size() <= index && remaining > 0 && !closed) {
+        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        remaining = deadline - System.nanoTime();
+      }
+
+      batch = index < syncBatches.size() ? syncBatches.get(index) : null;
+      if (batch != null) {
+        syncBatchDeliveries.get(index).complete(System.nanoTime());
+      }
+    }
+
+    if (batch == null) {
+      body.put("next_batch", since);
+    } else {
+      body.put("next_batch", batchToken(index + 1));
+      body.set("rooms", batch.toRooms());
+    }
+    respond(exchange, 200, body);
+  }
+
+  private void handleSend(
+      HttpExchange exchange, String roomId, String eventType, String transactionId)
+      throws IOException {
+
+    final var content = objectMapper.readTree(exchange.getRequestBody());
+    final var sentEvent = new SentEvent(roomId, eventType, transactionId, content);
+
+    synchronized (this) {
+      sentEventsByTransactionId.putIfAbsent(transactionId, sentEvent);
+    }
+
+    final var body = objectMapper.createObjectNode();
+    body.put("event_id", "$sent-%s".formatted(transactionId));
+    respond(exchange, 200, body);
+  }
+
+  private void handleMembership(HttpExchange exchange, String roomId, List<String> roomIds)
+      throws IOException {
+
+    synchronized (this) {
+      roomIds.add(roomId);
+    }
+
+    respond(exchange, 200, objectMapper.createObjectNode().put("room_id", roomId));
+  }
+
+  private void handleJoinedMembers(HttpExchange exchange, String roomId) throws IOException {
+
+    final var body = objectMapper.createObjectNode();
+    final var joined = body.putObject("joined");
+
+    synchronized (this) {
+      joinedMembersRequests++;
+      joinedMembersByRoomId
+          .getOrDefault(roomId, Map.of())
+          .forEach(
+              (memberId, displayName) ->
+                  joined.putObject(memberId).put("display_name", displayName));
+    }
+
+    respond(exchange, 200, body);
+  }
+
+  private synchronized boolean isAuthorized(HttpExchange exchange) {
+
+    final var authorization = exchange.getRequestHeaders().getFirst("Authorization");
+
+    return accessToken != null && ("Bearer " + accessToken).equals(authorization);
+  }
+
+  private void delay(Endpoint endpoint) throws InterruptedException {
+
+    final Duration latency;
+    synchronized (this) {
+      latency = injectedLatencies.getOrDefault(endpoint, Duration.ZERO);
+    }
+
+    if (!latency.isZero()) {
+      Thread.sleep(latency);
+    }
+  }
+
+  private Deque<InjectedFailure> failuresOf(Endpoint endpoint) {
+
+    return injectedFailures.computeIfAbsent(endpoint, ignored -> new ArrayDeque<>());
+  }
+
+  private void respondWithError(
+      HttpExchange exchange, int statusCode, String errorCode, Duration retryAfter)
+      throws IOException {
+
+    final var body = objectMapper.createObjectNode();
+    body.put("errcode", errorCode);
+    body.put("error", "Injected by fake homeserver");
+    if (retryAfter != null) {
+      body.put("retry_after_ms", retryAfter.toMillis());
+    }
+    respond(exchange, statusCode, body);
+  }
+
+  private void respond(HttpExchange exchange, int statusCode, ObjectNode body) throws IOException {
+
+    var bytes = objectMapper.writeValueAsBytes(body);
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+
+    final var acceptedEncodings = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+    if (acceptedEncodings != null && acceptedEncodings.contains("gzip")) {
+      final var compressed = new ByteArrayOutputStream();
+      try (var gzip = new GZIPOutputStream(compressed)) {
+        gzip.write(bytes);
+      }
+      bytes = compressed.toByteArray();
+      exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+    }
+
+    exchange.sendResponseHeaders(statusCode, bytes.length);
+    exchange.getResponseBody().write(bytes);
+  }
+
+  private static Map<String, String> parseQuery(String rawQuery) {
+
+    final var parameters = new HashMap<String, String>();
+    if (rawQuery == null) {
+      return parameters;
+    }
+
+    for (final var parameter : rawQuery.split("&")) {
+      final var separator = parameter.indexOf('=');
+      if (separator > 0) {
+        parameters.put(
+            URLDecoder.decode(parameter.substring(0, separator), StandardCharsets.UTF_8),
+            URLDecoder.decode(parameter.substring(separator + 1), StandardCharsets.UTF_8));
+      }
+    }
+
+    return parameters;
+  }
+
+  private static String batchToken(int index) {
+
+    return "fake_batch_%d".formatted(index);
+  }
+
+  private static int parseBatchToken(String token) {
+
+    return Integer.parseInt(token.substring("fake_batch_".length()));
+  }
+}
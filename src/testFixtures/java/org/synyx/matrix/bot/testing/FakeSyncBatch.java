@@ -0,0 +1,124 @@
+package org.synyx.matrix.bot.testing;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The rooms part of a sync response served by {@link FakeMatrixHomeserver}. Events added to joined
+ * rooms are served as timeline events.
+ */
+public class FakeSyncBatch {
+
+  private static final AtomicLong EVENT_COUNTER = new AtomicLong();
+
+  private final ObjectNode rooms;
+
+  public FakeSyncBatch() {
+
+    this.rooms = JsonNodeFactory.instance.objectNode();
+  }
+
+  /**
+   * Adds a message event to a joined room.
+   *
+   * @return The id of the added event.
+   */
+  public String message(String roomId, String sender, String body) {
+
+    final var content = JsonNodeFactory.instance.objectNode();
+    content.put("msgtype", "m.text");
+    content.put("body", body);
+
+    return addTimelineEvent(roomId, "m.room.message", sender, null, content);
+  }
+
+  /**
+   * Adds a membership event to a joined room, e.g. {@code "join"} or {@code "leave"}.
+   *
+   * @return The id of the added event.
+   */
+  public String membership(String roomId, String userId, String membership) {
+
+    final var content = JsonNodeFactory.instance.objectNode();
+    content.put("membership", membership);
+
+    return addTimelineEvent(roomId, "m.room.member", userId, userId, content);
+  }
+
+  /** Adds a room name event to a joined room. */
+  public FakeSyncBatch roomName(String roomId, String sender, String name) {
+
+    final var content = JsonNodeFactory.instance.objectNode();
+    content.put("name", name);
+    addTimelineEvent(roomId, "m.room.name", sender, "", content);
+
+    return this;
+  }
+
+  /** Sets the room summary of a joined room, as sent by servers if members are lazy loaded. */
+  public FakeSyncBatch joinedMemberCount(String roomId, int joinedMemberCount) {
+
+    rooms
+        .withObjectProperty("join")
+        .withObjectProperty(roomId)
+        .withObjectProperty("summary")
+        .put("m.joined_member_count", joinedMemberCount);
+
+    return this;
+  }
+
+  /** Adds an invite of the client to a room. */
+  public FakeSyncBatch invite(String roomId, String sender, String invitedUserId) {
+
+    final var event =
+        rooms
+            .withObjectProperty("invite")
+            .withObjectProperty(roomId)
+            .withObjectProperty("invite_state")
+            .withArrayProperty("events")
+            .addObject();
+    event.put("type", "m.room.member");
+    event.put("sender", sender);
+    event.put("state_key", invitedUserId);
+    event.putObject("content").put("membership", "invite");
+
+    return this;
+  }
+
+  /** Marks a room as left by the client. */
+  public FakeSyncBatch leave(String roomId) {
+
+    rooms.withObjectProperty("leave").withObjectProperty(roomId);
+
+    return this;
+  }
+
+  ObjectNode toRooms() {
+
+    return rooms.deepCopy();
+  }
+
+  private String addTimelineEvent(
+      String roomId, String type, String sender, String stateKey, ObjectNode content) {
+
+    final var eventId = "$fake%d".formatted(EVENT_COUNTER.incrementAndGet());
+    final var event =
+        rooms
+            .withObjectProperty("join")
+            .withObjectProperty(roomId)
+            .withObjectProperty("timeline")
+            .withArrayProperty("events")
+            .addObject();
+    event.put("event_id", eventId);
+    event.put("type", type);
+    event.put("sender", sender);
+    event.put("origin_server_ts", System.currentTimeMillis());
+    if (stateKey != null) {
+      event.put("state_key", stateKey);
+    }
+    event.set("content", content);
+
+    return eventId;
+  }
+}
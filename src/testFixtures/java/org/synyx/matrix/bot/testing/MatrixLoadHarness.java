@@ -0,0 +1,243 @@
+package org.synyx.matrix.bot.testing;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import org.synyx.matrix.bot.MatrixClient;
+import org.synyx.matrix.bot.MatrixEventConsumer;
+import org.synyx.matrix.bot.MatrixState;
+import org.synyx.matrix.bot.domain.MatrixMessage;
+import org.synyx.matrix.bot.domain.MatrixRoom;
+
+/**
+ * Measures how fast a {@link MatrixClient} processes incoming messages, end to end against a
+ * {@link FakeMatrixHomeserver}: events per second and the latency from a sync response being
+ * served until the message callback is called.
+ *
+ * <p>Running the main method compares a few client configurations with default settings.
+ */
+public class MatrixLoadHarness {
+
+  private static final String USER_ID = "@bot:localhost";
+  private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(60);
+  private static final Duration RUN_TIMEOUT = Duration.ofMinutes(10);
+
+  /**
+   * Describes a load test run.
+   *
+   * @param rooms The number of rooms the client is part of.
+   * @param membersPerRoom The number of members of each room besides the client.
+   * @param batches The number of sync batches served after the initial sync.
+   * @param messagesPerBatch The number of messages per batch, spread across all rooms.
+   * @param clientConfiguration Configures the client before it starts syncing.
+   */
+  public record Settings(
+      int rooms,
+      int membersPerRoom,
+      int batches,
+      int messagesPerBatch,
+      Consumer<MatrixClient> clientConfiguration) {
+
+    public static Settings defaults(Consumer<MatrixClient> clientConfiguration) {
+
+      return new Settings(100, 50, 200, 500, clientConfiguration);
+    }
+  }
+
+  /** The outcome of a load test run. */
+  public record Result(
+      long events,
+      Duration elapsed,
+      Duration p50Latency,
+      Duration p90Latency,
+      Duration p99Latency,
+      Duration maxLatency) {
+
+    public double getEventsPerSecond() {
+
+      return events / (elapsed.toNanos() / 1_000_000_000D);
+    }
+
+    @Override
+    public String toString() {
+
+      return "%d events in %dms, %.0f events/s, latency p50 %.2fms p90 %.2fms p99 %.2fms max %.2fms"
+          .formatted(
+              events,
+              elapsed.toMillis(),
+              getEventsPerSecond(),
+              p50Latency.toNanos() / 1_000_000D,
+              p90Latency.toNanos() / 1_000_000D,
+              p99Latency.toNanos() / 1_000_000D,
+              maxLatency.toNanos() / 1_000_000D);
+    }
+  }
+
+  private MatrixLoadHarness() {}
+
+  public static void main(String[] args) throws Exception {
+
+    final Map<String, Consumer<MatrixClient>> configurations = new LinkedHashMap<>();
+    configurations.put("default", client -> {});
+    configurations.put("streaming", client -> client.setStreamingSync(true));
+    configurations.put("pipelined", client -> client.setPipelinedSync(true));
+    configurations.put("concurrent", client -> client.setEventDispatchConcurrency(16));
+
+    for (final var configuration : configurations.entrySet()) {
+      final var result = run(Settings.defaults(configuration.getValue()));
+      System.out.printf("%-12s %s%n", configuration.getKey(), result);
+    }
+  }
+
+  public static Result run(Settings settings) throws IOException, InterruptedException {
+
+    try (var homeserver = FakeMatrixHomeserver.start(USER_ID)) {
+      homeserver.setInitialSync(createInitialSync(settings));
+
+      final var totalEvents = settings.batches() * settings.messagesPerBatch();
+      final var batches = new ArrayList<FakeSyncBatch>(settings.batches());
+      final var batchIndexByEventId = new HashMap<String, Integer>(totalEvents * 2);
+      for (var batchIndex = 0; batchIndex < settings.batches(); batchIndex++) {
+        final var batch = new FakeSyncBatch();
+        for (var message = 0; message < settings.messagesPerBatch(); message++) {
+          final var eventId =
+              batch.message(
+                  roomId(message % settings.rooms()),
+                  memberId(message % settings.membersPerRoom()),
+                  "Load test message %d".formatted(message));
+          batchIndexByEventId.put(eventId, batchIndex);
+        }
+        batches.add(batch);
+      }
+
+      // Filled up front, so the callbacks only ever read the list
+      final var deliveries = new ArrayList<CompletableFuture<Long>>(settings.batches());
+      batches.forEach(batch -> deliveries.add(new CompletableFuture<>()));
+      final var latencies = new long[totalEvents];
+      final var receivedEvents = new AtomicInteger();
+      final var connected = new CountDownLatch(1);
+      final var done = new CountDownLatch(totalEvents);
+
+      final var client = MatrixClient.create(homeserver.getUrl(), "bot", "password");
+      settings.clientConfiguration().accept(client);
+      client.setEventCallback(
+          new MatrixEventConsumer() {
+
+            @Override
+            public void onConnected(MatrixState state) {
+
+              connected.countDown();
+            }
+
+            @Override
+            public void onMessage(MatrixState state, MatrixRoom room, MatrixMessage message) {
+
+              final var receivedAt = System.nanoTime();
+              final var batchIndex = batchIndexByEventId.get(message.getEventId().getFormatted());
+              if (batchIndex == null) {
+                return;
+              }
+
+              final var index = receivedEvents.getAndIncrement();
+              if (index < latencies.length) {
+                latencies[index] = receivedAt - deliveries.get(batchIndex).join();
+              }
+              done.countDown();
+            }
+          });
+
+      final var syncThread =
+          Thread.ofPlatform()
+              .name("matrix-load-sync")
+              .start(
+                  () -> {
+                    try {
+                      client.syncContinuous();
+                    } catch (InterruptedException e) {
+                      Thread.currentThread().interrupt();
+                    }
+                  });
+
+      try {
+        if (!connected.await(CONNECT_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+          throw new IllegalStateException("Client did not connect to the fake homeserver");
+        }
+
+        final var start = System.nanoTime();
+        for (var batchIndex = 0; batchIndex < batches.size(); batchIndex++) {
+          homeserver
+              .enqueueSyncBatch(batches.get(batchIndex))
+              .thenAccept(deliveries.get(batchIndex)::complete);
+        }
+
+        if (!done.await(RUN_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+          throw new IllegalStateException(
+              "Only %d of %d events arrived".formatted(receivedEvents.get(), totalEvents));
+        }
+        final var elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+        return toResult(totalEvents, elapsed, latencies);
+      } finally {
+        client.requestStopOfSync();
+        syncThread.join(CONNECT_TIMEOUT.toMillis());
+      }
+    }
+  }
+
+  private static FakeSyncBatch createInitialSync(Settings settings) {
+
+    final var initialSync = new FakeSyncBatch();
+    for (var room = 0; room < settings.rooms(); room++) {
+      final var roomId = roomId(room);
+      initialSync.membership(roomId, USER_ID, "join");
+      initialSync.roomName(roomId, USER_ID, "Load test room %d".formatted(room));
+      for (var member = 0; member < settings.membersPerRoom(); member++) {
+        initialSync.membership(roomId, memberId(member), "join");
+      }
+    }
+
+    return initialSync;
+  }
+
+  private static Result toResult(long events, Duration elapsed, long[] latencies) {
+
+    final var sorted = latencies.clone();
+    Arrays.sort(sorted);
+
+    return new Result(
+        events,
+        elapsed,
+        Duration.ofNanos(percentile(sorted, 0.5)),
+        Duration.ofNanos(percentile(sorted, 0.9)),
+        Duration.ofNanos(percentile(sorted, 0.99)),
+        Duration.ofNanos(sorted.length == 0 ? 0 : sorted[sorted.length - 1]));
+  }
+
+  private static long percentile(long[] sorted, double percentile) {
+
+    if (sorted.length == 0) {
+      return 0;
+    }
+
+    return sorted[(int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1)];
+  }
+
+  private static String roomId(int index) {
+
+    return "!loadroom%d:localhost".formatted(index);
+  }
+
+  private static String memberId(int index) {
+
+    return "@member%d:localhost".formatted(index);
+  }
+}